@@ -21,6 +21,9 @@ dependencies {
 
     implementation("org.springframework.boot:spring-boot-starter-web")
 
+    // CopyManager for the COPY import path; the driver itself is provided at runtime by the runner.
+    compileOnly("org.postgresql:postgresql")
+
     // You may add any utility library you want to use, such as guava.
     // ORM libraries are prohibited in this project.
 }
@@ -20,6 +20,16 @@ public class RecipeController {
         return recipeService.getRecipeById(id);
     }
 
+    @PostMapping("/batch")
+    public java.util.List<RecipeRecord> getBatch(@RequestBody long[] ids) {
+        return recipeService.getRecipesByIds(ids);
+    }
+
+    @PostMapping("/batch/names")
+    public java.util.List<String> getNames(@RequestBody long[] ids) {
+        return recipeService.getNamesFromIDs(ids);
+    }
+
     @GetMapping("/search")
     public PageResult<RecipeRecord> search(
             @RequestParam(required = false) String keyword,
@@ -27,9 +37,15 @@ public class RecipeController {
             @RequestParam(required = false) Double minRating,
             @RequestParam(defaultValue = "1") Integer page,
             @RequestParam(defaultValue = "10") Integer size,
-            @RequestParam(required = false) String sort
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "true") boolean includeTotal
     ) {
-        return recipeService.searchRecipes(keyword, category, minRating, page, size, sort);
+        // any cursor parameter, even empty for the first page, switches to cursor pagination
+        if (cursor != null) {
+            return recipeService.searchRecipesByCursor(keyword, category, minRating, cursor, size, sort);
+        }
+        return recipeService.searchRecipes(keyword, category, minRating, page, size, sort, includeTotal);
     }
 
     @PostMapping
@@ -63,4 +79,9 @@ public class RecipeController {
     public java.util.List<Map<String, Object>> top3ByIngredients() {
         return recipeService.getTop3MostComplexRecipesByIngredients();
     }
+
+    @GetMapping("/ingredients/top")
+    public java.util.List<Map<String, Object>> topByIngredients(@RequestParam(defaultValue = "3") int limit) {
+        return recipeService.getMostComplexRecipesByIngredients(limit);
+    }
 }
\ No newline at end of file
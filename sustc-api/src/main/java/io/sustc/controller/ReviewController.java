@@ -1,8 +1,11 @@
 package io.sustc.controller;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.BatchResult;
+import io.sustc.dto.LikeReq;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.ReviewReq;
 import io.sustc.service.ReviewService;
 import org.springframework.web.bind.annotation.*;
 
@@ -47,11 +50,27 @@ public class ReviewController {
         return reviewService.unlikeReview(auth, reviewId);
     }
 
+    @PostMapping("/batch")
+    public java.util.List<BatchResult> addAll(@RequestBody java.util.List<ReviewReq> reviews) {
+        return reviewService.addReviews(reviews);
+    }
+
+    @PostMapping("/likes/batch")
+    public java.util.List<BatchResult> likeAll(@RequestBody java.util.List<LikeReq> likes) {
+        return reviewService.likeReviews(likes);
+    }
+
     @GetMapping("/by-recipe/{recipeId}")
     public PageResult<ReviewRecord> listByRecipe(@PathVariable long recipeId,
                                                  @RequestParam(defaultValue = "1") int page,
                                                  @RequestParam(defaultValue = "10") int size,
-                                                 @RequestParam(defaultValue = "date_desc") String sort) {
-        return reviewService.listByRecipe(recipeId, page, size, sort);
+                                                 @RequestParam(defaultValue = "date_desc") String sort,
+                                                 @RequestParam(required = false) String cursor,
+                                                 @RequestParam(defaultValue = "true") boolean includeTotal) {
+        // any cursor parameter, even empty for the first page, switches to cursor pagination
+        if (cursor != null) {
+            return reviewService.listByRecipeByCursor(recipeId, cursor, size, sort);
+        }
+        return reviewService.listByRecipe(recipeId, page, size, sort, includeTotal);
     }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package io.sustc.controller;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.FeedItem;
+import io.sustc.dto.PageResult;
 import io.sustc.dto.RegisterUserReq;
 import io.sustc.dto.UserRecord;
 import io.sustc.service.UserService;
@@ -28,6 +30,11 @@ public class UserController {
         return userService.getById(id);
     }
 
+    @PostMapping("/batch")
+    public java.util.List<UserRecord> getUsers(@RequestBody long[] ids) {
+        return userService.getByIds(ids);
+    }
+
     @PostMapping("/{id}/delete")
     public boolean delete(@PathVariable long id, @RequestBody AuthInfo auth) {
         return userService.deleteAccount(auth, id);
@@ -38,6 +45,22 @@ public class UserController {
         return userService.follow(auth, id);
     }
 
+    @GetMapping("/feed")
+    public PageResult<FeedItem> feed(@RequestParam long authorId,
+                                     @RequestParam String password,
+                                     @RequestParam(defaultValue = "1") int page,
+                                     @RequestParam(defaultValue = "10") int size,
+                                     @RequestParam(required = false) String category,
+                                     @RequestParam(required = false) String cursor,
+                                     @RequestParam(defaultValue = "true") boolean includeTotal) {
+        AuthInfo auth = new AuthInfo(authorId, password);
+        // any cursor parameter, even empty for the first page, switches to cursor pagination
+        if (cursor != null) {
+            return userService.feedByCursor(auth, cursor, size, category);
+        }
+        return userService.feed(auth, page, size, category, includeTotal);
+    }
+
     @PostMapping("/{id}/profile")
     public void updateProfile(@PathVariable long id,
                               @RequestBody UserRecord body,
@@ -0,0 +1,38 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of one item of a bulk request, in the position of the item
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult implements Serializable {
+
+    /**
+     * What the single call would have returned for the item, such as the new review ID, when it succeeded
+     */
+    private long value;
+
+    /**
+     * Why the item failed, as the message of the exception the single call would have thrown,
+     * {@code null} when it succeeded
+     */
+    private String error;
+
+    public static BatchResult success(long value) {
+        return new BatchResult(value, null);
+    }
+
+    public static BatchResult failure(String error) {
+        return new BatchResult(-1, error);
+    }
+
+}
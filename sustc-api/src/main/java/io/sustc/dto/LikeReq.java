@@ -0,0 +1,26 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One like of a bulk {@code likeReviews} request, with the same fields as {@code likeReview}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LikeReq implements Serializable {
+
+    /**
+     * The user liking the review
+     */
+    private AuthInfo auth;
+
+    private long reviewId;
+
+}
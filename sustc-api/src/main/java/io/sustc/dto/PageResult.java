@@ -20,7 +20,7 @@ public class PageResult<T> implements Serializable {
     private List<T> items;
 
     /**
-     * Current page number (starting from 1).
+     * Current page number (starting from 1), or 0 for a page requested by cursor.
      */
     private int page;
 
@@ -31,6 +31,14 @@ public class PageResult<T> implements Serializable {
 
     /**
      * Total number of records matching the query condition.
+     * It is -1 when the total was not requested, and for a page requested by cursor it is only counted
+     * on the first page and is -1 on the next ones.
      */
     private long total;
+
+    /**
+     * Opaque cursor to request the page following this one, only set for a page requested by cursor.
+     * It is {@code null} on the last page.
+     */
+    private String nextCursor;
 }
@@ -0,0 +1,33 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One review of a bulk {@code addReviews} request, with the same fields as {@code addReview}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewReq implements Serializable {
+
+    /**
+     * The author of the review
+     */
+    private AuthInfo auth;
+
+    private long recipeId;
+
+    /**
+     * The rating, between 1 and 5
+     */
+    private int rating;
+
+    private String review;
+
+}
@@ -29,6 +29,104 @@ public interface DatabaseService {
             List<RecipeRecord> recipeRecords
     );
 
+    /**
+     * Drops and recreates the secondary indexes of the schema.
+     */
+    void rebuildIndexes();
+
+    /**
+     * Checks that the secondary indexes of the schema exist and are usable.
+     *
+     * @return one line per expected index, starting with its status
+     */
+    List<String> verifyIndexes();
+
+    /**
+     * Measures the keyword search of recipes without and with the trigram indexes,
+     * on copies of the imported recipes of the given sizes. The database is left unchanged.
+     *
+     * @param sizes  numbers of recipes to search through
+     * @param rounds repetitions of each search, the median latency is reported
+     * @return a table with one line per size
+     */
+    List<String> benchmarkSearch(List<Integer> sizes, int rounds);
+
+    /**
+     * Builds the feed timelines again from the follows and recipes,
+     * and chooses again the authors whose recipes are read on demand.
+     *
+     * @return the number of timeline rows
+     */
+    int rebuildFeed();
+
+    /**
+     * Compares the feed timelines with the follows and recipes they are built from.
+     *
+     * @return the number of missing and extra timeline rows, one line each
+     */
+    List<String> verifyFeed();
+
+    /**
+     * Measures the feed in every mode, for users following the given numbers of authors.
+     * The database is left unchanged.
+     *
+     * @param followeeCounts numbers of followed authors, the most prolific ones
+     * @param rounds         repetitions of each page, the median latency is reported
+     * @return a table with one line per followee count
+     */
+    List<String> benchmarkFeed(List<Integer> followeeCounts, int rounds);
+
+    /**
+     * Measures concurrent follow toggles with each follow mode and checks the follower counters afterward.
+     * The follows and counters of the users involved are restored.
+     *
+     * @param threads    toggling threads, each on its own connection
+     * @param users      users toggling follows between them
+     * @param operations toggles per mode
+     * @return a table with one line per mode
+     */
+    List<String> benchmarkFollow(int threads, int users, int operations);
+
+    /**
+     * Measures concurrent logins with and without the credential cache. The database is left unchanged.
+     *
+     * @param threads    logging-in threads, each on its own connection
+     * @param users      users logged in repeatedly
+     * @param operations logins per mode
+     * @return a table with one line per mode
+     */
+    List<String> benchmarkLogin(int threads, int users, int operations);
+
+    /**
+     * Recomputes the rating and review count of the recipes from their reviews,
+     * where the running totals kept by the review changes no longer match them.
+     *
+     * @return the number of recipes repaired
+     */
+    int repairRatings();
+
+    /**
+     * Recomputes the follower and following counters of the users from the follows,
+     * where the counters kept by the follows and account deletions no longer match them.
+     *
+     * @return the number of users repaired
+     */
+    int repairFollowCounts();
+
+    /**
+     * Reports the size, hit rate and evictions of the in-process caches.
+     *
+     * @return one line per cache
+     */
+    List<String> cacheStats();
+
+    /**
+     * Compares the in-memory set of active users with the {@code users} table.
+     *
+     * @return the number of active users, and of those missing from the set or wrongly in it
+     */
+    List<String> verifyActiveUsers();
+
     /**
      * Delete all tables in the database.
      * <p>
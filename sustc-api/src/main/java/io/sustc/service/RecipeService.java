@@ -36,6 +36,26 @@ public interface RecipeService {
     RecipeRecord getRecipeById(long recipeId);
 
 
+    /**
+     * Batch variant of {@link #getNameFromID(long)}, reading all the names at once.
+     *
+     * @param ids the recipe IDs
+     * @return the names in the order of {@code ids}, {@code null} for recipes which do not exist
+     * @throws IllegalArgumentException if {@code ids} is {@code null} or contains an ID {@code <= 0}
+     */
+    List<String> getNamesFromIDs(long[] ids);
+
+    /**
+     * Batch variant of {@link #getRecipeById(long)}, reading all the recipes in a fixed number of queries
+     * whatever the number of IDs.
+     *
+     * @param recipeIds the recipe IDs, possibly repeated
+     * @return the complete {@link RecipeRecord}s in the order of {@code recipeIds}, {@code null} for recipes
+     * which do not exist
+     * @throws IllegalArgumentException if {@code recipeIds} is {@code null} or contains an ID {@code <= 0}
+     */
+    List<RecipeRecord> getRecipesByIds(long[] recipeIds);
+
     /**
      * Searches recipes based on multiple optional criteria, supporting pagination and sorting.
      *
@@ -81,6 +101,44 @@ public interface RecipeService {
             String sort
     );
 
+    /**
+     * Same search as {@link #searchRecipes(String, String, Double, Integer, Integer, String)},
+     * counting the total only when asked to.
+     *
+     * @param includeTotal whether to count the matching recipes, the total is -1 otherwise
+     * @throws IllegalArgumentException if {@code page < 1} or {@code size <= 0}
+     */
+    PageResult<RecipeRecord> searchRecipes(
+            String keyword,
+            String category,
+            Double minRating,
+            Integer page,
+            Integer size,
+            String sort,
+            boolean includeTotal
+    );
+
+    /**
+     * Same search as {@link #searchRecipes}, paginated by cursor instead of page number.
+     * <p>
+     * The first page is requested with a {@code null} or empty cursor, and each next page with the
+     * {@link PageResult#getNextCursor() nextCursor} of the previous one, using the same filters and sort.
+     * Each page starts right after the last recipe of the previous one, so deep pages cost no more than the first.
+     *
+     * @param cursor the cursor returned with the previous page (nullable)
+     * @param size   page size
+     * @return a {@link PageResult} whose total is only counted for the first page
+     * @throws IllegalArgumentException if {@code size <= 0} or the cursor is not one of this search
+     */
+    PageResult<RecipeRecord> searchRecipesByCursor(
+            String keyword,
+            String category,
+            Double minRating,
+            String cursor,
+            Integer size,
+            String sort
+    );
+
     /**
      * Creates a new recipe authored by the authenticated user.
      *
@@ -258,4 +316,16 @@ public interface RecipeService {
      */
     List<Map<String, Object>> getTop3MostComplexRecipesByIngredients();
 
+    /**
+     * Returns the {@code limit} recipes with the most ingredients, counted, ordered and
+     * returned as by {@link #getTop3MostComplexRecipesByIngredients()}, which is this method
+     * with a limit of 3.
+     *
+     * @param limit the maximum number of recipes returned
+     * @return a list of up to {@code limit} maps describing the most
+     *         ingredient-heavy recipes.
+     * @throws IllegalArgumentException if {@code limit} is not positive
+     */
+    List<Map<String, Object>> getMostComplexRecipesByIngredients(int limit);
+
 }
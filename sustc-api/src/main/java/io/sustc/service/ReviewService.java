@@ -1,9 +1,14 @@
 package io.sustc.service;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.BatchResult;
+import io.sustc.dto.LikeReq;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.ReviewReq;
+
+import java.util.List;
 
 
 public interface ReviewService {
@@ -164,6 +169,35 @@ public interface ReviewService {
      */
     long unlikeReview(AuthInfo auth, long reviewId);
 
+    /**
+     * Adds many reviews at once, as {@link #addReview} would one by one, from possibly different authors.
+     *
+     * <p>The valid reviews are inserted together, their IDs allocated in one block, and the
+     * {@code aggregated_rating} and {@code review_count} of every recipe they review are updated once.
+     * An invalid review does not prevent the others from being added: a review which the database refuses,
+     * such as a text it cannot store, fails alone, the others being then inserted one by one.</p>
+     *
+     * @param reviews the reviews to add
+     * @return one {@link BatchResult} per review, in the same order: what {@link #addReview} would have
+     * returned, the new review ID or {@code -1} if the recipe does not exist, or the message of the exception
+     * it would have thrown, or of the database error
+     * @throws IllegalArgumentException if {@code reviews} is {@code null}
+     */
+    List<BatchResult> addReviews(List<ReviewReq> reviews);
+
+    /**
+     * Adds many likes at once, as {@link #likeReview} would one by one, from possibly different users.
+     *
+     * <p>The valid likes are inserted and counted in one statement. An invalid like does not prevent
+     * the others from being added.</p>
+     *
+     * @param likes the likes to add
+     * @return one {@link BatchResult} per like, in the same order: the number of likes of the review once
+     * all the likes are added, or the message of the exception {@link #likeReview} would have thrown
+     * @throws IllegalArgumentException if {@code likes} is {@code null}
+     */
+    List<BatchResult> likeReviews(List<LikeReq> likes);
+
 
     /**
      * Lists reviews for a specific recipe with pagination and sorting.
@@ -191,6 +225,27 @@ public interface ReviewService {
      */
     PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort);
 
+    /**
+     * Same listing as {@link #listByRecipe(long, int, int, String)}, counting the total only when asked to.
+     *
+     * @param includeTotal whether to count the reviews of the recipe, the total is -1 otherwise
+     * @throws IllegalArgumentException if {@code page < 1} or {@code size <= 0}
+     */
+    PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort, boolean includeTotal);
+
+    /**
+     * Same listing as {@link #listByRecipe}, paginated by cursor instead of page number.
+     * Reviews with the same sort key are ordered by descending ID.
+     *
+     * @param recipeId the ID of the recipe whose reviews are being listed
+     * @param cursor   the {@link PageResult#getNextCursor() nextCursor} of the previous page, {@code null} for the first page
+     * @param size     the number of items per page
+     * @param sort     sorting option, such as <code>"date_desc"</code> or <code>"likes_desc"</code>
+     * @return a {@link PageResult} whose total is only counted for the first page
+     * @throws IllegalArgumentException if the recipe does not exist, {@code size <= 0} or the cursor is not one of this listing
+     */
+    PageResult<ReviewRecord> listByRecipeByCursor(long recipeId, String cursor, int size, String sort);
+
     /**
      * Recalculates and updates the {@code aggregated_rating} and {@code review_count}
      * fields for the specified recipe.
@@ -154,6 +154,17 @@ public interface UserService {
      */
     UserRecord getById(long userId);
 
+    /**
+     * Batch variant of {@link #getById(long)}, reading all the profiles and their follow lists in one query
+     * whatever the number of IDs.
+     *
+     * @param userIds the IDs of the target users, possibly repeated
+     * @return the {@link UserRecord}s in the order of {@code userIds}, {@code null} for users which do not exist
+     * or are deleted
+     * @throws IllegalArgumentException if {@code userIds} is {@code null}
+     */
+    List<UserRecord> getByIds(long[] userIds);
+
 
     /**
      * Update profile information of a user (e.g., gender, age).
@@ -199,6 +210,28 @@ public interface UserService {
      */
     PageResult<FeedItem> feed(AuthInfo auth, int page, int size, @Nullable String category);
 
+    /**
+     * Same timeline as {@link #feed(AuthInfo, int, int, String)}, counting the total only when asked to.
+     *
+     * @param includeTotal whether to count the recipes of the timeline, the total is -1 otherwise
+     * @throws SecurityException if the user identity in {@code auth} is invalid or inactive
+     */
+    PageResult<FeedItem> feed(AuthInfo auth, int page, int size, @Nullable String category, boolean includeTotal);
+
+    /**
+     * Same timeline as {@link #feed}, paginated by cursor instead of page number.
+     *
+     * @param auth     authentication info
+     * @param cursor   the {@link PageResult#getNextCursor() nextCursor} of the previous page, {@code null} for the first page
+     * @param size     Page size (1~200, adjusted like {@link #feed})
+     * @param category Optional recipe category filter, null means no filtering
+     * @return timeline results whose total is only counted for the first page
+     *
+     * @throws SecurityException if the user identity in {@code auth} is invalid or inactive
+     * @throws IllegalArgumentException if the cursor is not one of this timeline
+     */
+    PageResult<FeedItem> feedByCursor(AuthInfo auth, @Nullable String cursor, int size, @Nullable String category);
+
 
     /**
      * Finds the active (non-deleted) user with the highest ratio of followers to followings.
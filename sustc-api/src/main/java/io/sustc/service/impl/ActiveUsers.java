@@ -0,0 +1,220 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The IDs of the users which exist and are not deleted, as a bitmap, so the services check the user
+ * of a call in memory instead of reading its row first.
+ * <p>
+ * The bitmap is read from {@code users} on first use after an import, then {@link UserServiceImpl#register}
+ * and {@link UserServiceImpl#deleteAccount} update it once their row is written. A load during which a user
+ * was registered or deleted may have missed it, so it is not kept, and the calls meanwhile are answered
+ * from the table. {@code db users verify} compares the bitmap with the table.
+ */
+@Component
+@Slf4j
+public class ActiveUsers implements DataLifecycleListener {
+
+    private static final String ACTIVE_SQL = "SELECT AuthorId FROM users WHERE IsDeleted = FALSE";
+
+    private static final String EXISTS_SQL = "SELECT EXISTS (SELECT 1 FROM users WHERE AuthorId = ? AND IsDeleted = FALSE)";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The active users while {@link #loaded}.
+     */
+    private BitSet active = new BitSet();
+
+    private boolean loaded;
+
+    /**
+     * Incremented by every registration and deletion, so a load which one of them may have missed is not kept.
+     */
+    private long generation;
+
+    /**
+     * Held by the one caller scanning the table, the others wait for its scan instead of running their own.
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Incremented by every scan, kept or not, so a caller which waited for one does not scan again.
+     */
+    private volatile long scans;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return whether the user exists and is not deleted
+     */
+    public boolean isActive(long authorId) {
+        if (inBitmap(authorId)) {
+            lock.readLock().lock();
+            try {
+                if (loaded) {
+                    return active.get((int) authorId);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (load()) {
+                return isActive(authorId);
+            }
+        }
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(EXISTS_SQL, Boolean.class, authorId));
+    }
+
+    /**
+     * Called once a new user is committed.
+     */
+    public void registered(long authorId) {
+        set(authorId, true);
+    }
+
+    /**
+     * Called once the deletion of a user is committed.
+     */
+    public void deleted(long authorId) {
+        set(authorId, false);
+    }
+
+    /**
+     * The bitmap checked against the table, for {@code db users verify}.
+     *
+     * @return the active users missing from the bitmap and the users in it which are not active
+     */
+    public List<String> verify() {
+        BitSet expected = readActive();
+        BitSet missing;
+        BitSet extra;
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                return List.of("active users not loaded yet, " + expected.cardinality() + " in the table");
+            }
+            missing = (BitSet) expected.clone();
+            missing.andNot(active);
+            extra = (BitSet) active.clone();
+            extra.andNot(expected);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return List.of("active users: " + expected.cardinality(),
+                "missing active users: " + missing.cardinality(),
+                "extra active users: " + extra.cardinality());
+    }
+
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            loaded = false;
+            active = new BitSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void afterImport() {
+        invalidate();
+    }
+
+    @Override
+    public void afterDrop() {
+        invalidate();
+    }
+
+    /**
+     * IDs outside of the range of a bitmap index are always checked in the table.
+     */
+    private static boolean inBitmap(long authorId) {
+        return authorId >= 0 && authorId <= Integer.MAX_VALUE;
+    }
+
+    private void set(long authorId, boolean isActive) {
+        if (!inBitmap(authorId)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            generation++;
+            if (loaded) {
+                active.set((int) authorId, isActive);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the table, unless another caller did while this one waited: however many calls find the bitmap
+     * not loaded at once, the table is scanned once.
+     *
+     * @return whether the bitmap is loaded now
+     */
+    private boolean load() {
+        long seenScans = scans;
+        synchronized (loadLock) {
+            if (scans != seenScans) {
+                return isLoaded();
+            }
+            try {
+                long stamp;
+                lock.readLock().lock();
+                try {
+                    if (loaded) {
+                        return true;
+                    }
+                    stamp = generation;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                BitSet read = readActive();
+                lock.writeLock().lock();
+                try {
+                    if (!loaded && generation == stamp) {
+                        active = read;
+                        loaded = true;
+                        log.debug("Loaded {} active users", read.cardinality());
+                    }
+                    return loaded;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                scans++;
+            }
+        }
+    }
+
+    private boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return loaded;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BitSet readActive() {
+        BitSet read = new BitSet();
+        jdbcTemplate.query(ACTIVE_SQL, rs -> {
+            long authorId = rs.getLong(1);
+            if (inBitmap(authorId)) {
+                read.set((int) authorId);
+            }
+        });
+        return read;
+    }
+}
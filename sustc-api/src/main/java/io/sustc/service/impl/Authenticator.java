@@ -0,0 +1,147 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Checks the password of a user against its {@code Password} column, for {@link UserServiceImpl#login}
+ * and the likes of {@link ReviewServiceImpl}.
+ * <p>
+ * A verified password is remembered for the user, for {@link ServiceConfig.Auth#getCacheTtl()}, so the next
+ * calls with it are answered without reading the user. The password itself is not kept in memory, only its HMAC
+ * under a key drawn when the application starts. Any other password is checked against the database.
+ * {@link UserServiceImpl#deleteAccount} forgets the user at once.
+ */
+@Component
+public class Authenticator implements DataLifecycleListener, MeteredCache {
+
+    private static final String PASSWORD_SQL = "SELECT Password FROM users WHERE AuthorId = ? AND IsDeleted = FALSE";
+
+    private final ServiceConfig serviceConfig;
+
+    private final LruCache<Long, Verified> verified;
+
+    private final byte[] fingerprintKey = new byte[32];
+
+    private final ThreadLocal<Mac> fingerprintMac = ThreadLocal.withInitial(this::newMac);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ActiveUsers activeUsers;
+
+    @Autowired
+    public Authenticator(ServiceConfig serviceConfig) {
+        this.serviceConfig = serviceConfig;
+        this.verified = new LruCache<>("credentials", () -> {
+            ServiceConfig.Auth config = serviceConfig.getAuth();
+            return config.isCacheEnabled() ? config.getCacheCapacity() : 0;
+        });
+        new SecureRandom().nextBytes(fingerprintKey);
+    }
+
+    /**
+     * @return whether the user exists, is not deleted and has this password
+     */
+    public boolean verify(long authorId, String password) {
+        return verify(authorId, password, serviceConfig.getAuth().isCacheEnabled());
+    }
+
+    /**
+     * @param useCache whether to answer from and remember in the cache, off to measure the uncached path
+     */
+    public boolean verify(long authorId, String password, boolean useCache) {
+        if (password == null) {
+            return false;
+        }
+        byte[] fingerprint = fingerprint(authorId, password);
+        long now = System.nanoTime();
+        if (useCache) {
+            Verified cached = verified.get(authorId);
+            if (cached != null && now - cached.verifiedAt() < serviceConfig.getAuth().getCacheTtl().toNanos()
+                    && MessageDigest.isEqual(cached.fingerprint(), fingerprint)) {
+                return true;
+            }
+        }
+        if (!activeUsers.isActive(authorId)) {
+            return false;
+        }
+        long stamp = verified.stamp();
+        List<String> stored = jdbcTemplate.queryForList(PASSWORD_SQL, String.class, authorId);
+        if (stored.isEmpty() || stored.get(0) == null || !MessageDigest.isEqual(
+                stored.get(0).getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8))) {
+            return false;
+        }
+        if (useCache) {
+            verified.put(authorId, new Verified(fingerprint, now), stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the credentials of the user. Called within a transaction, it forgets them again once the
+     * transaction completes, so a check made before the commit cannot be remembered for the committed data.
+     */
+    public void invalidate(long authorId) {
+        verified.invalidate(authorId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    verified.invalidate(authorId);
+                }
+            });
+        }
+    }
+
+    public void invalidateAll() {
+        verified.clear();
+    }
+
+    @Override
+    public void afterImport() {
+        invalidateAll();
+    }
+
+    @Override
+    public void afterDrop() {
+        afterImport();
+    }
+
+    @Override
+    public List<CacheStats> stats() {
+        return List.of(verified.stats());
+    }
+
+    private byte[] fingerprint(long authorId, String password) {
+        Mac mac = fingerprintMac.get();
+        mac.update(Long.toString(authorId).getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(fingerprintKey, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot fingerprint credentials with HmacSHA256", e);
+        }
+    }
+
+    private record Verified(byte[] fingerprint, long verifiedAt) {
+    }
+}
@@ -0,0 +1,24 @@
+package io.sustc.service.impl;
+
+/**
+ * A snapshot of the counters of a cache, since the application started.
+ *
+ * @param invalidations entries dropped because the data they were loaded from changed
+ */
+public record CacheStats(String name, int size, int capacity, long hits, long misses,
+                         long evictions, long invalidations) {
+
+    /**
+     * The share of lookups served from the cache, 0 before the first lookup.
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-16s size %d/%d, hits %d, misses %d, hit rate %.1f%%, evictions %d, invalidations %d",
+                name, size, capacity, hits, misses, hitRate() * 100, evictions, invalidations);
+    }
+}
@@ -0,0 +1,260 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the closest calorie pair of {@link RecipeServiceImpl#getClosestCaloriePair} between the writes to
+ * the recipes, instead of sorting all of them on every call.
+ * <p>
+ * The pairs are the neighbours in the {@code (Calories, RecipeId)} order of the {@code idx_recipes_calories}
+ * index. A new recipe only splits the pair of its two neighbours, and a deleted one only joins its neighbours
+ * into a new pair, so each write finds its neighbours with two probes of the index and compares the pairs it
+ * created with the current closest one. Only when the closest pair itself loses a recipe is the whole order
+ * scanned again, on the next call. The pairs are compared as the query does, by difference, then by the IDs
+ * of the first and of the second recipe.
+ */
+@Component
+@Slf4j
+public class CaloriePairTracker implements DataLifecycleListener {
+
+    private static final String CLOSEST_PAIR_SQL = "WITH sorted_recipes AS (" +
+            "    SELECT " +
+            "        RecipeId, " +
+            "        Calories, " +
+            "        LEAD(RecipeId) OVER (ORDER BY Calories ASC, RecipeId ASC) AS NextRecipeId, " +
+            "        LEAD(Calories) OVER (ORDER BY Calories ASC, RecipeId ASC) AS NextCalories " +
+            "    FROM recipes " +
+            "    WHERE Calories IS NOT NULL" +
+            "), " +
+            "calorie_diffs AS (" +
+            "    SELECT " +
+            "        RecipeId AS RecipeA, " +
+            "        NextRecipeId AS RecipeB, " +
+            "        Calories AS CaloriesA, " +
+            "        NextCalories AS CaloriesB, " +
+            "        ABS(Calories - NextCalories) AS Difference " +
+            "    FROM sorted_recipes " +
+            "    WHERE NextRecipeId IS NOT NULL" +
+            ") " +
+            "SELECT RecipeA, RecipeB, CaloriesA, CaloriesB, Difference " +
+            "FROM calorie_diffs " +
+            "ORDER BY Difference ASC, RecipeA ASC, RecipeB ASC " +
+            "LIMIT 1";
+
+    private static final String PREVIOUS_SQL = """
+            SELECT RecipeId, Calories FROM recipes
+            WHERE Calories IS NOT NULL AND (Calories, RecipeId) < (?, ?)
+            ORDER BY Calories DESC, RecipeId DESC
+            LIMIT 1
+            """;
+
+    private static final String NEXT_SQL = """
+            SELECT RecipeId, Calories FROM recipes
+            WHERE Calories IS NOT NULL AND (Calories, RecipeId) > (?, ?)
+            ORDER BY Calories, RecipeId
+            LIMIT 1
+            """;
+
+    private static final RowMapper<Recipe> RECIPE_MAPPER =
+            (rs, rowNum) -> new Recipe(rs.getLong("RecipeId"), rs.getBigDecimal("Calories"));
+
+    private static final Comparator<Recipe> BY_CALORIES = Comparator.comparing(Recipe::calories)
+            .thenComparingLong(Recipe::id);
+
+    private static final Comparator<Pair> CLOSEST_FIRST = Comparator.comparing(Pair::difference)
+            .thenComparingLong(Pair::recipeA)
+            .thenComparingLong(Pair::recipeB);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * The closest pair while {@link #known}, {@code null} when there are fewer than two recipes with calories.
+     */
+    private Pair closest;
+
+    private boolean known;
+
+    /**
+     * Incremented by every write, so a scan or probes which a write may have missed are not kept.
+     */
+    private long generation;
+
+    /**
+     * @return the pair as returned by {@code getClosestCaloriePair}, {@code null} if there is none
+     */
+    public Map<String, Object> closestPair() {
+        long stamp;
+        synchronized (this) {
+            if (known) {
+                return toMap(closest);
+            }
+            stamp = generation;
+        }
+        List<Pair> scanned = jdbcTemplate.query(CLOSEST_PAIR_SQL, (rs, rowNum) -> new Pair(
+                new Recipe(rs.getLong("RecipeA"), rs.getBigDecimal("CaloriesA")),
+                new Recipe(rs.getLong("RecipeB"), rs.getBigDecimal("CaloriesB"))));
+        Pair pair = scanned.isEmpty() ? null : scanned.get(0);
+        synchronized (this) {
+            if (generation == stamp) {
+                closest = pair;
+                known = true;
+            }
+        }
+        return toMap(pair);
+    }
+
+    /**
+     * Called once the recipe is committed. Its neighbours are probed outside the lock, and the new pairs are
+     * only kept if nothing else was written meanwhile, otherwise the order is scanned again on the next call.
+     */
+    public void recipeCreated(long recipeId) {
+        long stamp;
+        synchronized (this) {
+            stamp = ++generation;
+            if (!known) {
+                return;
+            }
+        }
+        // the calories as stored, rounded to the column
+        List<Recipe> created = jdbcTemplate.query("SELECT RecipeId, Calories FROM recipes WHERE RecipeId = ?",
+                RECIPE_MAPPER, recipeId);
+        if (created.isEmpty() || created.get(0).calories() == null) {
+            return;
+        }
+        Recipe recipe = created.get(0);
+        Recipe previous = neighbour(PREVIOUS_SQL, recipe);
+        Recipe next = neighbour(NEXT_SQL, recipe);
+        synchronized (this) {
+            if (unchangedSince(stamp)) {
+                split(recipe, previous, next);
+            }
+        }
+    }
+
+    /**
+     * Called once the recipe is deleted, with the calories it had. Its neighbours are probed as in
+     * {@link #recipeCreated}.
+     */
+    public void recipeDeleted(long recipeId, BigDecimal calories) {
+        long stamp;
+        synchronized (this) {
+            stamp = ++generation;
+            if (!known || calories == null) {
+                return;
+            }
+            if (closest != null && (closest.recipeA() == recipeId || closest.recipeB() == recipeId)) {
+                // the next closest pair can be anywhere
+                log.debug("Closest calorie pair {}-{} lost recipe {}, scanning again", closest.recipeA(), closest.recipeB(), recipeId);
+                known = false;
+                return;
+            }
+        }
+        Recipe recipe = new Recipe(recipeId, calories);
+        Recipe previous = neighbour(PREVIOUS_SQL, recipe);
+        Recipe next = neighbour(NEXT_SQL, recipe);
+        synchronized (this) {
+            if (unchangedSince(stamp) && previous != null && next != null) {
+                offer(new Pair(previous, next));
+            }
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        known = false;
+        closest = null;
+    }
+
+    @Override
+    public void afterImport() {
+        invalidate();
+    }
+
+    @Override
+    public void afterDrop() {
+        invalidate();
+    }
+
+    /**
+     * Under the lock, whether the pair is still known as of the stamp. A write since then may have probed
+     * the same neighbours, so the pair is forgotten rather than merged in an order the probes did not see.
+     */
+    private boolean unchangedSince(long stamp) {
+        if (known && generation != stamp) {
+            log.debug("Calorie pairs changed concurrently, scanning again");
+            known = false;
+            closest = null;
+        }
+        return known;
+    }
+
+    private void split(Recipe recipe, Recipe previous, Recipe next) {
+        if (closest != null && BY_CALORIES.compare(closest.a(), recipe) < 0 && BY_CALORIES.compare(recipe, closest.b()) < 0) {
+            // the closest pair was split, and the new pairs between its recipes are at least as close as it was,
+            // with the smaller first ID on a tie
+            closest = null;
+        }
+        if (previous != null) {
+            offer(new Pair(previous, recipe));
+        }
+        if (next != null) {
+            offer(new Pair(recipe, next));
+        }
+    }
+
+    private void offer(Pair pair) {
+        if (closest == null || CLOSEST_FIRST.compare(pair, closest) < 0) {
+            closest = pair;
+        }
+    }
+
+    private Recipe neighbour(String sql, Recipe recipe) {
+        List<Recipe> neighbours = jdbcTemplate.query(sql, RECIPE_MAPPER, recipe.calories(), recipe.id());
+        return neighbours.isEmpty() ? null : neighbours.get(0);
+    }
+
+    private static Map<String, Object> toMap(Pair pair) {
+        if (pair == null) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("RecipeA", pair.recipeA());
+        map.put("RecipeB", pair.recipeB());
+        map.put("CaloriesA", pair.a().calories().doubleValue());
+        map.put("CaloriesB", pair.b().calories().doubleValue());
+        map.put("Difference", pair.difference().doubleValue());
+        return map;
+    }
+
+    private record Recipe(long id, BigDecimal calories) {
+    }
+
+    /**
+     * Two neighbours in the {@code (Calories, RecipeId)} order, {@code a} first.
+     */
+    private record Pair(Recipe a, Recipe b) {
+
+        long recipeA() {
+            return a.id();
+        }
+
+        long recipeB() {
+            return b.id();
+        }
+
+        BigDecimal difference() {
+            return b.calories().subtract(a.calories()).abs();
+        }
+    }
+}
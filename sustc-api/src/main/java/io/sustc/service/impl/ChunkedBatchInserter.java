@@ -0,0 +1,68 @@
+package io.sustc.service.impl;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects rows produced on the fly and sends them as one JDBC batch whenever {@code chunkSize} rows are buffered,
+ * so at most one chunk of rows (and of bound parameters in the driver) is held in memory at any time.
+ * <p>
+ * Call {@link #finish()} after the last {@link #add} to send the partially filled chunk.
+ */
+public class ChunkedBatchInserter<R> {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String sql;
+
+    private final ParameterizedPreparedStatementSetter<R> setter;
+
+    private final int chunkSize;
+
+    private final ImportMetrics importMetrics;
+
+    private final List<R> chunk;
+
+    private long rows;
+
+    public ChunkedBatchInserter(JdbcTemplate jdbcTemplate, String sql, int chunkSize,
+                                ImportMetrics importMetrics, ParameterizedPreparedStatementSetter<R> setter) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.chunkSize = chunkSize;
+        this.importMetrics = importMetrics;
+        this.setter = setter;
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    public void add(R row) {
+        chunk.add(row);
+        if (chunk.size() == chunkSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the remaining rows and returns the number of rows inserted in total.
+     */
+    public long finish() {
+        if (!chunk.isEmpty()) {
+            flush();
+        }
+        return rows;
+    }
+
+    private void flush() {
+        jdbcTemplate.batchUpdate(sql, chunk, chunk.size(), setter);
+        rows += chunk.size();
+        // sample while the chunk is still referenced, that is when the buffered rows peak
+        importMetrics.sampleHeap();
+        chunk.clear();
+    }
+}
@@ -0,0 +1,282 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.UserRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk loader which streams the import records into PostgreSQL with {@code COPY ... FROM STDIN (FORMAT csv)}.
+ * <p>
+ * The rows are encoded straight from the record lists into the copy stream, so there is neither
+ * per-row statement binding nor any intermediate list of rows.
+ * The stream is flushed to the server every {@code sustc.importer.chunk-size} rows, which bounds
+ * the buffered data whatever the size of the import.
+ * The values are rendered exactly like the batch path would have them converted by the server,
+ * see {@link CsvRowWriter#real(float)}.
+ */
+@Component
+@Slf4j
+public class CopyImporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    @Autowired
+    private ImportMetrics importMetrics;
+
+    public long copyUsers(Connection conn, List<UserRecord> userRecords) throws SQLException {
+        return copy(conn, "users (AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted)", out -> {
+            for (UserRecord user : userRecords) {
+                out.integer(user.getAuthorId());
+                out.text(user.getAuthorName());
+                out.text(user.getGender());
+                out.integer(user.getAge());
+                out.integer(user.getFollowers());
+                out.integer(user.getFollowing());
+                out.text(user.getPassword());
+                out.bool(user.isDeleted());
+                out.endRow();
+            }
+        });
+    }
+
+    public long copyRecipes(Connection conn, List<RecipeRecord> recipeRecords,
+                            RatingMaintainer.RatingTotals ratingTotals) throws SQLException {
+        return copy(conn, "recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
+                "Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, " +
+                "SaturatedFatContent, CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, " +
+                "SugarContent, ProteinContent, RecipeServings, RecipeYield, RatingSum, RatingCount, IngredientCount)", out -> {
+            for (RecipeRecord recipe : recipeRecords) {
+                out.integer(recipe.getRecipeId());
+                out.text(recipe.getName());
+                out.integer(recipe.getAuthorId());
+                out.text(recipe.getCookTime());
+                out.text(recipe.getPrepTime());
+                out.text(recipe.getTotalTime());
+                out.timestamp(recipe.getDatePublished());
+                out.text(recipe.getDescription());
+                out.text(recipe.getRecipeCategory());
+                out.real(recipe.getAggregatedRating());
+                out.integer(recipe.getReviewCount());
+                out.real(recipe.getCalories());
+                out.real(recipe.getFatContent());
+                out.real(recipe.getSaturatedFatContent());
+                out.real(recipe.getCholesterolContent());
+                out.real(recipe.getSodiumContent());
+                out.real(recipe.getCarbohydrateContent());
+                out.real(recipe.getFiberContent());
+                out.real(recipe.getSugarContent());
+                out.real(recipe.getProteinContent());
+                out.integer(recipe.getRecipeServings());
+                out.text(recipe.getRecipeYield());
+                out.integer(ratingTotals.sum(recipe.getRecipeId()));
+                out.integer(ratingTotals.count(recipe.getRecipeId()));
+                out.integer(IngredientLoader.distinctCount(recipe.getRecipeIngredientParts()));
+                out.endRow();
+            }
+        });
+    }
+
+    public long copyReviews(Connection conn, List<ReviewRecord> reviewRecords) throws SQLException {
+        return copy(conn, "reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified, LikeCount)", out -> {
+            for (ReviewRecord review : reviewRecords) {
+                out.integer(review.getReviewId());
+                out.integer(review.getRecipeId());
+                out.integer(review.getAuthorId());
+                // a float bound to an INTEGER column is rounded half to even by the server
+                out.integer((long) Math.rint(review.getRating()));
+                out.text(review.getReview());
+                out.timestamp(review.getDateSubmitted());
+                out.timestamp(review.getDateModified());
+                out.integer(review.getLikes().length);
+                out.endRow();
+            }
+        });
+    }
+
+    public long copyUserFollows(Connection conn, List<UserRecord> userRecords) throws SQLException {
+        return copy(conn, "user_follows (FollowerId, FollowingId)", out -> {
+            for (UserRecord user : userRecords) {
+                for (long followerId : user.getFollowerUsers()) {
+                    out.integer(followerId);
+                    out.integer(user.getAuthorId());
+                    out.endRow();
+                }
+            }
+        });
+    }
+
+    public long copyRecipeIngredients(Connection conn, List<RecipeRecord> recipeRecords) throws SQLException {
+        return copy(conn, "recipe_ingredients (RecipeId, IngredientPart)", out -> {
+            Set<String> uniqueIngredients = new HashSet<>();
+            for (RecipeRecord recipe : recipeRecords) {
+                uniqueIngredients.clear();
+                for (String ingredient : recipe.getRecipeIngredientParts()) {
+                    if (uniqueIngredients.add(ingredient)) {
+                        out.integer(recipe.getRecipeId());
+                        out.text(ingredient);
+                        out.endRow();
+                    }
+                }
+            }
+        });
+    }
+
+    public long copyReviewLikes(Connection conn, List<ReviewRecord> reviewRecords) throws SQLException {
+        return copy(conn, "review_likes (ReviewId, AuthorId)", out -> {
+            for (ReviewRecord review : reviewRecords) {
+                for (long authorId : review.getLikes()) {
+                    out.integer(review.getReviewId());
+                    out.integer(authorId);
+                    out.endRow();
+                }
+            }
+        });
+    }
+
+    private long copy(Connection conn, String target, RowProducer producer) throws SQLException {
+        String sql = "COPY " + target + " FROM STDIN WITH (FORMAT csv)";
+        PGConnection pgConn = conn.unwrap(PGConnection.class);
+        PGCopyOutputStream stream = new PGCopyOutputStream(pgConn, sql, BUFFER_SIZE);
+        try {
+            CsvRowWriter out = new CsvRowWriter(stream, serviceConfig.getImporter().getChunkSize(), importMetrics);
+            producer.produce(out);
+            out.flush();
+            long rows = stream.endCopy();
+            log.debug("Copied {} rows into {}", rows, target);
+            return rows;
+        } catch (IOException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Failed to stream rows for " + sql, e);
+        } finally {
+            if (stream.isActive()) {
+                stream.cancelCopy();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowProducer {
+        void produce(CsvRowWriter out) throws IOException;
+    }
+
+    /**
+     * Encodes fields in the CSV dialect understood by {@code COPY}:
+     * unquoted empty fields are {@code NULL}, while strings are always quoted.
+     */
+    private static final class CsvRowWriter {
+
+        private static final MathContext FLOAT4_DIGITS = new MathContext(6, RoundingMode.HALF_EVEN);
+
+        private final Writer writer;
+
+        private final int chunkSize;
+
+        private final ImportMetrics importMetrics;
+
+        private boolean firstField = true;
+
+        private int rowsInChunk;
+
+        CsvRowWriter(PGCopyOutputStream stream, int chunkSize, ImportMetrics importMetrics) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be positive");
+            }
+            this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.chunkSize = chunkSize;
+            this.importMetrics = importMetrics;
+        }
+
+        void integer(long value) throws IOException {
+            separator();
+            writer.write(Long.toString(value));
+        }
+
+        void bool(boolean value) throws IOException {
+            separator();
+            writer.write(value ? "t" : "f");
+        }
+
+        void text(String value) throws IOException {
+            separator();
+            if (value == null) {
+                return;
+            }
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+
+        void timestamp(Timestamp value) throws IOException {
+            separator();
+            if (value != null) {
+                // same local wall-clock rendering as PreparedStatement#setTimestamp
+                writer.write(value.toString());
+            }
+        }
+
+        /**
+         * A {@code float} bound through JDBC reaches a DECIMAL column as {@code float4}, and the server
+         * casts it with 6 significant digits before rounding to the column scale.
+         * Rendering the value the same way keeps COPY and batch imports byte-for-byte identical.
+         */
+        void real(float value) throws IOException {
+            separator();
+            writer.write(new BigDecimal(value).round(FLOAT4_DIGITS).toPlainString());
+        }
+
+        void endRow() throws IOException {
+            writer.write('\n');
+            firstField = true;
+            if (++rowsInChunk == chunkSize) {
+                flush();
+                importMetrics.sampleHeap();
+                rowsInChunk = 0;
+            }
+        }
+
+        private void separator() throws IOException {
+            if (!firstField) {
+                writer.write(',');
+            }
+            firstField = false;
+        }
+
+        /**
+         * Pushes the buffered rows through the copy stream, which flushes its own buffer to the connection.
+         */
+        void flush() throws IOException {
+            writer.flush();
+        }
+    }
+}
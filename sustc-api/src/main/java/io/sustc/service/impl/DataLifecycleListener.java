@@ -0,0 +1,20 @@
+package io.sustc.service.impl;
+
+/**
+ * Implemented by the components which keep state derived from the database,
+ * so {@link DatabaseServiceImpl} can tell them when the whole data set is replaced.
+ */
+public interface DataLifecycleListener {
+
+    /**
+     * Called once {@link DatabaseServiceImpl#importData} has loaded the tables and built the indexes.
+     */
+    default void afterImport() {
+    }
+
+    /**
+     * Called once {@link DatabaseServiceImpl#drop()} has deleted the tables.
+     */
+    default void afterDrop() {
+    }
+}
@@ -9,9 +9,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.sql.*;
@@ -20,6 +21,7 @@ import javax.sql.DataSource;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * It's important to mark your implementation class with {@link Service} annotation.
@@ -47,161 +49,374 @@ public class DatabaseServiceImpl implements DatabaseService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    @Autowired
+    private CopyImporter copyImporter;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ImportMetrics importMetrics;
+
+    @Autowired
+    private IndexCatalog indexCatalog;
+
+    @Autowired
+    private List<DataLifecycleListener> lifecycleListeners;
+
+    @Autowired
+    private List<MeteredCache> meteredCaches;
+
+    @Autowired
+    private RatingMaintainer ratingMaintainer;
+
+    @Autowired
+    private SearchBenchmark searchBenchmark;
+
+    @Autowired
+    private FollowBenchmark followBenchmark;
+
+    @Autowired
+    private FeedTimeline feedTimeline;
+
+    @Autowired
+    private FeedBenchmark feedBenchmark;
+
+    @Autowired
+    private LoginBenchmark loginBenchmark;
+
+    @Autowired
+    private ActiveUsers activeUsers;
+
+    @Autowired
+    private FollowEngine followEngine;
+
     @Override
-    @Transactional
     public void importData(
             List<ReviewRecord> reviewRecords,
             List<UserRecord> userRecords,
             List<RecipeRecord> recipeRecords)  {
+        importMetrics.start();
+        // written with the recipe rows, rather than aggregated from the reviews table afterward
+        RatingMaintainer.RatingTotals ratingTotals = RatingMaintainer.RatingTotals.of(reviewRecords);
+        if (serviceConfig.getImporter().isParallel()) {
+            importInParallel(reviewRecords, userRecords, recipeRecords, ratingTotals);
+        } else {
+            // everything in one transaction, with the constraints checked row by row
+            transactionTemplate.executeWithoutResult(status -> {
+                // ddl to create tables.
+                createTables();
+                PRIMARY_KEYS.forEach(jdbcTemplate::execute);
+                FOREIGN_KEYS.forEach(jdbcTemplate::execute);
+                loadUsers(userRecords);
+                loadRecipes(recipeRecords, ratingTotals);
+                loadReviews(reviewRecords);
+                loadUserFollows(userRecords);
+                loadRecipeIngredients(recipeRecords);
+                loadReviewLikes(reviewRecords);
+                feedTimeline.fill();
+                indexCatalog.createExtensions();
+                indexCatalog.createStatements().forEach(jdbcTemplate::execute);
+            });
+        }
+        log.info("Imported {} users, {} recipes and {} reviews",
+                userRecords.size(), recipeRecords.size(), reviewRecords.size());
+        importMetrics.finish();
+        lifecycleListeners.forEach(DataLifecycleListener::afterImport);
+    }
+
+    /**
+     * Loads the bare tables concurrently, then builds the keys and indexes over the loaded data,
+     * which is much cheaper than checking and maintaining them for every inserted row.
+     * The foreign keys are added as {@code NOT VALID} one at a time, since that only needs a short lock,
+     * and the expensive scans of {@code VALIDATE CONSTRAINT} then run concurrently.
+     * <p>
+     * Every step commits on its own, so a failure would leave the steps before it committed, half-loaded
+     * tables without keys. The tables this import created are dropped before the failure is rethrown.
+     */
+    private void importInParallel(
+            List<ReviewRecord> reviewRecords,
+            List<UserRecord> userRecords,
+            List<RecipeRecord> recipeRecords,
+            RatingMaintainer.RatingTotals ratingTotals) {
+        List<String> created = TABLES.stream()
+                .filter(table -> jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NULL", Boolean.class, table))
+                .collect(Collectors.toList());
+        try {
+            loadInParallel(reviewRecords, userRecords, recipeRecords, ratingTotals);
+        } catch (RuntimeException e) {
+            log.error("Import failed, dropping the tables it created: {}", created);
+            try {
+                created.forEach(table -> jdbcTemplate.execute("DROP TABLE IF EXISTS " + table + " CASCADE"));
+                lifecycleListeners.forEach(DataLifecycleListener::afterDrop);
+            } catch (RuntimeException dropFailure) {
+                e.addSuppressed(dropFailure);
+            }
+            throw e;
+        }
+    }
+
+    private void loadInParallel(
+            List<ReviewRecord> reviewRecords,
+            List<UserRecord> userRecords,
+            List<RecipeRecord> recipeRecords,
+            RatingMaintainer.RatingTotals ratingTotals) {
         // ddl to create tables.
-        createTables();
-        // TODO: implement your import logic
+        transactionTemplate.executeWithoutResult(status -> createTables());
+
+        importPipeline.runStage("users", List.of(
+                () -> loadUsers(userRecords)));
+        importPipeline.runStage("recipes, user_follows", List.of(
+                () -> loadRecipes(recipeRecords, ratingTotals),
+                () -> loadUserFollows(userRecords)));
+        importPipeline.runStage("reviews, recipe_ingredients, review_likes, feed_timeline", List.of(
+                () -> loadReviews(reviewRecords),
+                () -> loadRecipeIngredients(recipeRecords),
+                () -> loadReviewLikes(reviewRecords),
+                feedTimeline::fill));
+
+        importPipeline.runStatements("primary keys", PRIMARY_KEYS);
+        transactionTemplate.executeWithoutResult(status -> FOREIGN_KEYS.stream()
+                .map(sql -> sql + " NOT VALID")
+                .forEach(jdbcTemplate::execute));
+        importPipeline.runStatements("foreign keys", FOREIGN_KEYS.stream()
+                .map(DatabaseServiceImpl::validateConstraintSQL)
+                .collect(Collectors.toList()));
+        indexCatalog.build();
+        importPipeline.runStatements("analyze", TABLES.stream()
+                .map(table -> "ANALYZE " + table)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Turns {@code ALTER TABLE t ADD CONSTRAINT c ...} into {@code ALTER TABLE t VALIDATE CONSTRAINT c}.
+     */
+    private static String validateConstraintSQL(String addConstraintSQL) {
+        String[] words = addConstraintSQL.split(" ");
+        return "ALTER TABLE " + words[2] + " VALIDATE CONSTRAINT " + words[5];
+    }
+
+    private void loadUsers(List<UserRecord> userRecords) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyUsers(conn, userRecords));
+        } else {
+            batchInsertUsers(userRecords);
+        }
+    }
+
+    private void loadRecipes(List<RecipeRecord> recipeRecords, RatingMaintainer.RatingTotals ratingTotals) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyRecipes(conn, recipeRecords, ratingTotals));
+        } else {
+            batchInsertRecipes(recipeRecords, ratingTotals);
+        }
+    }
+
+    private void loadReviews(List<ReviewRecord> reviewRecords) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyReviews(conn, reviewRecords));
+        } else {
+            batchInsertReviews(reviewRecords);
+        }
+    }
+
+    private void loadUserFollows(List<UserRecord> userRecords) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyUserFollows(conn, userRecords));
+        } else {
+            batchInsertUserFollows(userRecords);
+        }
+    }
+
+    private void loadRecipeIngredients(List<RecipeRecord> recipeRecords) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyRecipeIngredients(conn, recipeRecords));
+        } else {
+            batchInsertRecipeIngredients(recipeRecords);
+        }
+    }
+
+    private void loadReviewLikes(List<ReviewRecord> reviewRecords) {
+        if (useCopy()) {
+            jdbcTemplate.execute((ConnectionCallback<Long>) conn -> copyImporter.copyReviewLikes(conn, reviewRecords));
+        } else {
+            batchInsertReviewLikes(reviewRecords);
+        }
+    }
+
+    // COPY runs on the connection bound to the current transaction, like any other JdbcTemplate call
+    private boolean useCopy() {
+        return serviceConfig.getImporter().getMode() == ServiceConfig.ImportMode.COPY;
+    }
+
+    private <R> ChunkedBatchInserter<R> batchInserter(String sql, ParameterizedPreparedStatementSetter<R> setter) {
+        return new ChunkedBatchInserter<>(jdbcTemplate, sql, serviceConfig.getImporter().getChunkSize(), importMetrics, setter);
+    }
+
+    private void batchInsertUsers(List<UserRecord> userRecords) {
         String insertUserSQL = "INSERT INTO users (AuthorId, AuthorName, Gender, Age, Followers, Following, Password, IsDeleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        jdbcTemplate.batchUpdate(insertUserSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                UserRecord userRecord = userRecords.get(i);
-                ps.setLong(1, userRecord.getAuthorId());
-                ps.setString(2, userRecord.getAuthorName());
-                ps.setString(3, userRecord.getGender());
-                ps.setInt(4, userRecord.getAge());
-                ps.setInt(5, userRecord.getFollowers());
-                ps.setInt(6, userRecord.getFollowing());
-                ps.setString(7, userRecord.getPassword());
-                ps.setBoolean(8, userRecord.isDeleted());
-            }
-            @Override
-            public int getBatchSize() {
-                return userRecords.size();
-            }
+        ChunkedBatchInserter<UserRecord> inserter = batchInserter(insertUserSQL, (ps, userRecord) -> {
+            ps.setLong(1, userRecord.getAuthorId());
+            ps.setString(2, userRecord.getAuthorName());
+            ps.setString(3, userRecord.getGender());
+            ps.setInt(4, userRecord.getAge());
+            ps.setInt(5, userRecord.getFollowers());
+            ps.setInt(6, userRecord.getFollowing());
+            ps.setString(7, userRecord.getPassword());
+            ps.setBoolean(8, userRecord.isDeleted());
         });
-        String insertRecipeSQL = "INSERT INTO recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, ProteinContent, RecipeServings, RecipeYield) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        jdbcTemplate.batchUpdate(insertRecipeSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                RecipeRecord recipeRecord = recipeRecords.get(i);
-                ps.setLong(1, recipeRecord.getRecipeId());
-                ps.setString(2, recipeRecord.getName());
-                ps.setLong(3, recipeRecord.getAuthorId());
-                ps.setString(4, recipeRecord.getCookTime());
-                ps.setString(5, recipeRecord.getPrepTime());
-                ps.setString(6, recipeRecord.getTotalTime());
-                ps.setTimestamp(7, recipeRecord.getDatePublished());
-                ps.setString(8, recipeRecord.getDescription());
-                ps.setString(9, recipeRecord.getRecipeCategory());
-                ps.setObject(10, recipeRecord.getAggregatedRating());
-                ps.setInt(11, recipeRecord.getReviewCount());
-                ps.setObject(12, recipeRecord.getCalories());
-                ps.setObject(13, recipeRecord.getFatContent());
-                ps.setObject(14, recipeRecord.getSaturatedFatContent());
-                ps.setObject(15, recipeRecord.getCholesterolContent());
-                ps.setObject(16, recipeRecord.getSodiumContent());
-                ps.setObject(17, recipeRecord.getCarbohydrateContent());
-                ps.setObject(18, recipeRecord.getFiberContent());
-                ps.setObject(19, recipeRecord.getSugarContent());
-                ps.setObject(20, recipeRecord.getProteinContent());
-                ps.setInt(21, recipeRecord.getRecipeServings());
-                ps.setString(22, recipeRecord.getRecipeYield());
-            }
-            @Override
-            public int getBatchSize() {
-                return recipeRecords.size();
-            }
+        userRecords.forEach(inserter::add);
+        inserter.finish();
+    }
+
+    private void batchInsertRecipes(List<RecipeRecord> recipeRecords, RatingMaintainer.RatingTotals ratingTotals) {
+        String insertRecipeSQL = "INSERT INTO recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, ProteinContent, RecipeServings, RecipeYield, RatingSum, RatingCount, IngredientCount) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        ChunkedBatchInserter<RecipeRecord> inserter = batchInserter(insertRecipeSQL, (ps, recipeRecord) -> {
+            ps.setLong(1, recipeRecord.getRecipeId());
+            ps.setString(2, recipeRecord.getName());
+            ps.setLong(3, recipeRecord.getAuthorId());
+            ps.setString(4, recipeRecord.getCookTime());
+            ps.setString(5, recipeRecord.getPrepTime());
+            ps.setString(6, recipeRecord.getTotalTime());
+            ps.setTimestamp(7, recipeRecord.getDatePublished());
+            ps.setString(8, recipeRecord.getDescription());
+            ps.setString(9, recipeRecord.getRecipeCategory());
+            ps.setObject(10, recipeRecord.getAggregatedRating());
+            ps.setInt(11, recipeRecord.getReviewCount());
+            ps.setObject(12, recipeRecord.getCalories());
+            ps.setObject(13, recipeRecord.getFatContent());
+            ps.setObject(14, recipeRecord.getSaturatedFatContent());
+            ps.setObject(15, recipeRecord.getCholesterolContent());
+            ps.setObject(16, recipeRecord.getSodiumContent());
+            ps.setObject(17, recipeRecord.getCarbohydrateContent());
+            ps.setObject(18, recipeRecord.getFiberContent());
+            ps.setObject(19, recipeRecord.getSugarContent());
+            ps.setObject(20, recipeRecord.getProteinContent());
+            ps.setInt(21, recipeRecord.getRecipeServings());
+            ps.setString(22, recipeRecord.getRecipeYield());
+            ps.setLong(23, ratingTotals.sum(recipeRecord.getRecipeId()));
+            ps.setInt(24, ratingTotals.count(recipeRecord.getRecipeId()));
+            ps.setInt(25, IngredientLoader.distinctCount(recipeRecord.getRecipeIngredientParts()));
         });
-        String insertReviewSQL = "INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        jdbcTemplate.batchUpdate(insertReviewSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                ReviewRecord reviewRecord = reviewRecords.get(i);
-                ps.setLong(1, reviewRecord.getReviewId());
-                ps.setLong(2, reviewRecord.getRecipeId());
-                ps.setLong(3, reviewRecord.getAuthorId());
-                ps.setObject(4, reviewRecord.getRating());
-                ps.setString(5, reviewRecord.getReview());
-                ps.setTimestamp(6, reviewRecord.getDateSubmitted());
-                ps.setTimestamp(7, reviewRecord.getDateModified());
-            }
-            @Override
-            public int getBatchSize() {
-                return reviewRecords.size();
-            }
+        recipeRecords.forEach(inserter::add);
+        inserter.finish();
+    }
+
+    private void batchInsertReviews(List<ReviewRecord> reviewRecords) {
+        String insertReviewSQL = "INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified, LikeCount) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        ChunkedBatchInserter<ReviewRecord> inserter = batchInserter(insertReviewSQL, (ps, reviewRecord) -> {
+            ps.setLong(1, reviewRecord.getReviewId());
+            ps.setLong(2, reviewRecord.getRecipeId());
+            ps.setLong(3, reviewRecord.getAuthorId());
+            ps.setObject(4, reviewRecord.getRating());
+            ps.setString(5, reviewRecord.getReview());
+            ps.setTimestamp(6, reviewRecord.getDateSubmitted());
+            ps.setTimestamp(7, reviewRecord.getDateModified());
+            ps.setInt(8, reviewRecord.getLikes().length);
         });
+        reviewRecords.forEach(inserter::add);
+        inserter.finish();
+    }
 
-        List<long[]> followerPairs = new ArrayList<>();
+    private void batchInsertUserFollows(List<UserRecord> userRecords) {
+        String insertUserFollowerSQL = "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)";
+        ChunkedBatchInserter<long[]> inserter = batchInserter(insertUserFollowerSQL, (ps, pair) -> {
+            ps.setLong(1, pair[0]);
+            ps.setLong(2, pair[1]);
+        });
         for (UserRecord userRecord : userRecords) {
             long authorId = userRecord.getAuthorId();
             for (long followerId : userRecord.getFollowerUsers()) {
-                followerPairs.add(new long[]{followerId, authorId});
+                inserter.add(new long[]{followerId, authorId});
             }
         }
-        String insertUserFollowerSQL = "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)";
-        jdbcTemplate.batchUpdate(insertUserFollowerSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                long[] pair = followerPairs.get(i);
-                ps.setLong(1, pair[0]);
-                ps.setLong(2, pair[1]);
-            }
+        inserter.finish();
+    }
 
-            @Override
-            public int getBatchSize() {
-                return followerPairs.size();
-            }
+    private void batchInsertRecipeIngredients(List<RecipeRecord> recipeRecords) {
+        String recipe_ingredientsSQL = "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?)";
+        ChunkedBatchInserter<Object[]> inserter = batchInserter(recipe_ingredientsSQL, (ps, pair) -> {
+            ps.setLong(1, (Long) pair[0]);
+            ps.setString(2, (String) pair[1]);
         });
-        List<Object[]> ingredientPairs = new ArrayList<>();
+        Set<String> uniqueIngredients = new HashSet<>();
         for (RecipeRecord recipeRecord : recipeRecords) {
-            long recipeId = recipeRecord.getRecipeId();
-            String[] ingredients = recipeRecord.getRecipeIngredientParts();
-            Set<String> uniqueIngredients = new HashSet<>();
-            for (String ingredient : ingredients) {
-                uniqueIngredients.add(ingredient);
-            }
-            for (String uniqueIngredient : uniqueIngredients) {
-                ingredientPairs.add(new Object[]{recipeId, uniqueIngredient});
+            Long recipeId = recipeRecord.getRecipeId();
+            uniqueIngredients.clear();
+            for (String ingredient : recipeRecord.getRecipeIngredientParts()) {
+                if (uniqueIngredients.add(ingredient)) {
+                    inserter.add(new Object[]{recipeId, ingredient});
+                }
             }
         }
-        String recipe_ingredientsSQL = "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?)";
-        jdbcTemplate.batchUpdate(recipe_ingredientsSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                Object[] pair = ingredientPairs.get(i);
-                ps.setLong(1, (Long) pair[0]);
-                ps.setString(2, (String) pair[1]);
-            }
-            @Override
-            public int getBatchSize() {
-                return ingredientPairs.size();
-            }
+        inserter.finish();
+    }
+
+    private void batchInsertReviewLikes(List<ReviewRecord> reviewRecords) {
+        String review_likesSQL = "INSERT INTO review_likes (ReviewId, AuthorId) VALUES (?, ?)";
+        ChunkedBatchInserter<long[]> inserter = batchInserter(review_likesSQL, (ps, pair) -> {
+            ps.setLong(1, pair[0]);
+            ps.setLong(2, pair[1]);
         });
-        String review_likesSQL="INSERT INTO review_likes (ReviewId, AuthorId) VALUES (?, ?)";
-        List<Object[]> likespairs=new ArrayList<>();
-        for(ReviewRecord reviewRecord:reviewRecords){
-            long reviewId=reviewRecord.getReviewId();
-            long[] authorIds=reviewRecord.getLikes();
-            for(long Id:authorIds){
-                likespairs.add(new Object[]{reviewId,Id});
+        for (ReviewRecord reviewRecord : reviewRecords) {
+            long reviewId = reviewRecord.getReviewId();
+            for (long authorId : reviewRecord.getLikes()) {
+                inserter.add(new long[]{reviewId, authorId});
             }
         }
-        jdbcTemplate.batchUpdate(review_likesSQL, new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                Object[] pair = likespairs.get(i);
-                ps.setLong(1, (Long) pair[0]);
-                ps.setLong(2, (Long) pair[1]);
-            }
-            @Override
-            public int getBatchSize() {
-                return likespairs.size();
-            }
-        });
+        inserter.finish();
     }
 
 
+    private static final List<String> TABLES = List.of(
+            "users", "recipes", "reviews", "recipe_ingredients", "review_likes", "user_follows",
+            "feed_timeline", "feed_celebrities");
+
+    /**
+     * Added after the data is loaded, with the names PostgreSQL would give the inline declarations.
+     */
+    private static final List<String> PRIMARY_KEYS = List.of(
+            "ALTER TABLE users ADD CONSTRAINT users_pkey PRIMARY KEY (AuthorId)",
+            "ALTER TABLE recipes ADD CONSTRAINT recipes_pkey PRIMARY KEY (RecipeId)",
+            "ALTER TABLE reviews ADD CONSTRAINT reviews_pkey PRIMARY KEY (ReviewId)",
+            "ALTER TABLE recipe_ingredients ADD CONSTRAINT recipe_ingredients_pkey PRIMARY KEY (RecipeId, IngredientPart)",
+            "ALTER TABLE review_likes ADD CONSTRAINT review_likes_pkey PRIMARY KEY (ReviewId, AuthorId)",
+            "ALTER TABLE user_follows ADD CONSTRAINT user_follows_pkey PRIMARY KEY (FollowerId, FollowingId)",
+            "ALTER TABLE feed_timeline ADD CONSTRAINT feed_timeline_pkey PRIMARY KEY (UserId, AuthorId, RecipeId)"
+    );
+
+    private static final List<String> FOREIGN_KEYS = List.of(
+            "ALTER TABLE recipes ADD CONSTRAINT recipes_authorid_fkey FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)",
+            "ALTER TABLE reviews ADD CONSTRAINT reviews_recipeid_fkey FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)",
+            "ALTER TABLE reviews ADD CONSTRAINT reviews_authorid_fkey FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)",
+            "ALTER TABLE recipe_ingredients ADD CONSTRAINT recipe_ingredients_recipeid_fkey FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)",
+            "ALTER TABLE review_likes ADD CONSTRAINT review_likes_reviewid_fkey FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId)",
+            "ALTER TABLE review_likes ADD CONSTRAINT review_likes_authorid_fkey FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)",
+            "ALTER TABLE user_follows ADD CONSTRAINT user_follows_followerid_fkey FOREIGN KEY (FollowerId) REFERENCES users(AuthorId)",
+            "ALTER TABLE user_follows ADD CONSTRAINT user_follows_followingid_fkey FOREIGN KEY (FollowingId) REFERENCES users(AuthorId)"
+    );
+
+    /**
+     * Free space kept in the pages of the tables whose rows are updated in place (follower counters,
+     * cooking times, ratings), so the new row versions fit in the same page and updates that don't
+     * touch an indexed column skip the index maintenance (HOT updates).
+     */
+    private static final int TABLE_FILLFACTOR = 90;
+
+    /**
+     * Creates the tables with their column checks only, see {@link #PRIMARY_KEYS} and {@link #FOREIGN_KEYS}.
+     */
     private void createTables() {
         String[] createTableSQLs = {
                 // 创建users表
                 "CREATE TABLE IF NOT EXISTS users (" +
-                        "    AuthorId BIGINT PRIMARY KEY, " +
+                        "    AuthorId BIGINT NOT NULL, " +
                         "    AuthorName VARCHAR(255) NOT NULL, " +
                         "    Gender VARCHAR(10) CHECK (Gender IN ('Male', 'Female')), " +
                         "    Age INTEGER CHECK (Age > 0), " +
@@ -209,11 +424,11 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    Following INTEGER DEFAULT 0 CHECK (Following >= 0), " +
                         "    Password VARCHAR(255), " +
                         "    IsDeleted BOOLEAN DEFAULT FALSE" +
-                        ")",
+                        ") WITH (fillfactor = " + TABLE_FILLFACTOR + ")",
 
                 // 创建recipes表
                 "CREATE TABLE IF NOT EXISTS recipes (" +
-                        "    RecipeId BIGINT PRIMARY KEY, " +
+                        "    RecipeId BIGINT NOT NULL, " +
                         "    Name VARCHAR(500) NOT NULL, " +
                         "    AuthorId BIGINT NOT NULL, " +
                         "    CookTime VARCHAR(50), " +
@@ -235,48 +450,48 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    ProteinContent DECIMAL(10,2), " +
                         "    RecipeServings VARCHAR(100), " +
                         "    RecipeYield VARCHAR(100), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
-                        ")",
+                        // running totals of the ratings of the reviews, see RatingMaintainer
+                        "    RatingSum BIGINT NOT NULL DEFAULT 0, " +
+                        "    RatingCount INTEGER NOT NULL DEFAULT 0 CHECK (RatingCount >= 0), " +
+                        // the rows of recipe_ingredients of the recipe, for getMostComplexRecipesByIngredients
+                        "    IngredientCount INTEGER NOT NULL DEFAULT 0 CHECK (IngredientCount >= 0)" +
+                        ") WITH (fillfactor = " + TABLE_FILLFACTOR + ")",
 
                 // 创建reviews表
                 "CREATE TABLE IF NOT EXISTS reviews (" +
-                        "    ReviewId BIGINT PRIMARY KEY, " +
+                        "    ReviewId BIGINT NOT NULL, " +
                         "    RecipeId BIGINT NOT NULL, " +
                         "    AuthorId BIGINT NOT NULL, " +
                         "    Rating INTEGER, " +
                         "    Review TEXT, " +
                         "    DateSubmitted TIMESTAMP, " +
                         "    DateModified TIMESTAMP, " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
+                        // the rows of review_likes of the review, kept by likeReview and unlikeReview
+                        "    LikeCount INTEGER NOT NULL DEFAULT 0 CHECK (LikeCount >= 0)" +
                         ")",
 
                 // 创建recipe_ingredients表
                 "CREATE TABLE IF NOT EXISTS recipe_ingredients (" +
-                        "    RecipeId BIGINT, " +
-                        "    IngredientPart VARCHAR(500), " +
-                        "    PRIMARY KEY (RecipeId, IngredientPart), " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)" +
+                        "    RecipeId BIGINT NOT NULL, " +
+                        "    IngredientPart VARCHAR(500) NOT NULL" +
                         ")",
 
                 // 创建review_likes表
                 "CREATE TABLE IF NOT EXISTS review_likes (" +
-                        "    ReviewId BIGINT, " +
-                        "    AuthorId BIGINT, " +
-                        "    PRIMARY KEY (ReviewId, AuthorId), " +
-                        "    FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId), " +
-                        "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
+                        "    ReviewId BIGINT NOT NULL, " +
+                        "    AuthorId BIGINT NOT NULL" +
                         ")",
 
                 // 创建user_follows表
                 "CREATE TABLE IF NOT EXISTS user_follows (" +
-                        "    FollowerId BIGINT, " +
-                        "    FollowingId BIGINT, " +
-                        "    PRIMARY KEY (FollowerId, FollowingId), " +
-                        "    FOREIGN KEY (FollowerId) REFERENCES users(AuthorId), " +
-                        "    FOREIGN KEY (FollowingId) REFERENCES users(AuthorId), " +
+                        "    FollowerId BIGINT NOT NULL, " +
+                        "    FollowingId BIGINT NOT NULL, " +
                         "    CHECK (FollowerId != FollowingId)" +
-                        ")"
+                        ")",
+
+                // the timelines of UserService#feed, see FeedTimeline
+                FeedTimeline.TIMELINE_TABLE_SQL,
+                FeedTimeline.CELEBRITIES_TABLE_SQL
         };
 
         for (String sql : createTableSQLs) {
@@ -293,6 +508,69 @@ public class DatabaseServiceImpl implements DatabaseService {
      * Reference: [Data Access Object pattern](https://www.baeldung.com/java-dao-pattern)
      */
 
+    @Override
+    public void rebuildIndexes() {
+        indexCatalog.rebuild();
+    }
+
+    @Override
+    public List<String> verifyIndexes() {
+        return indexCatalog.verify();
+    }
+
+    @Override
+    public int repairRatings() {
+        return ratingMaintainer.repairAll();
+    }
+
+    @Override
+    public int repairFollowCounts() {
+        return followEngine.repairCounts();
+    }
+
+    @Override
+    public List<String> cacheStats() {
+        return meteredCaches.stream()
+                .flatMap(cache -> cache.stats().stream())
+                .map(CacheStats::toString)
+                .toList();
+    }
+
+    @Override
+    public List<String> benchmarkSearch(List<Integer> sizes, int rounds) {
+        return searchBenchmark.run(sizes, rounds);
+    }
+
+    @Override
+    public int rebuildFeed() {
+        return feedTimeline.rebuild();
+    }
+
+    @Override
+    public List<String> verifyFeed() {
+        return feedTimeline.verify();
+    }
+
+    @Override
+    public List<String> benchmarkFeed(List<Integer> followeeCounts, int rounds) {
+        return feedBenchmark.run(followeeCounts, rounds);
+    }
+
+    @Override
+    public List<String> benchmarkFollow(int threads, int users, int operations) {
+        return followBenchmark.run(threads, users, operations);
+    }
+
+    @Override
+    public List<String> benchmarkLogin(int threads, int users, int operations) {
+        return loginBenchmark.run(threads, users, operations);
+    }
+
+    @Override
+    public List<String> verifyActiveUsers() {
+        return activeUsers.verify();
+    }
+
     @Override
     public void drop() {
         // You can use the default drop script provided by us in most cases,
@@ -318,6 +596,7 @@ public class DatabaseServiceImpl implements DatabaseService {
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        lifecycleListeners.forEach(DataLifecycleListener::afterDrop);
     }
 
     @Override
@@ -0,0 +1,129 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.AuthInfo;
+import io.sustc.dto.FeedItem;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the {@link ServiceConfig.FeedMode modes} of {@link UserServiceImpl#feed} for users following
+ * more and more authors.
+ * <p>
+ * For every followee count, a new user following the authors with the most recipes is added, their timeline
+ * is filled, and the same pages of their feed, with and without a category, are read in every mode.
+ * Everything runs in one transaction which is rolled back, so the database is left as it was.
+ */
+@Component
+@Slf4j
+public class FeedBenchmark {
+
+    private static final String FOLLOW_SQL = """
+            INSERT INTO user_follows (FollowerId, FollowingId)
+            SELECT ?, u.AuthorId FROM users u
+            WHERE u.IsDeleted = FALSE AND u.AuthorId <> ?
+            ORDER BY (SELECT COUNT(*) FROM recipes r WHERE r.AuthorId = u.AuthorId) DESC, u.AuthorId
+            LIMIT ?
+            """;
+
+    /**
+     * A frequent category, so the filtered feeds are not empty.
+     */
+    private static final String CATEGORY_SQL =
+            "SELECT RecipeCategory FROM recipes WHERE RecipeCategory IS NOT NULL " +
+                    "GROUP BY RecipeCategory ORDER BY COUNT(*) DESC LIMIT 1";
+
+    private static final int[] PAGES = {1, 10};
+
+    private static final int PAGE_SIZE = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private UserServiceImpl userService;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private FeedTimeline feedTimeline;
+
+    public List<String> run(List<Integer> followeeCounts, int rounds) {
+        if (followeeCounts == null || followeeCounts.isEmpty() || rounds <= 0) {
+            throw new IllegalArgumentException("Followee counts and rounds must be given");
+        }
+        List<String> report = new ArrayList<>();
+        StringBuilder header = new StringBuilder(String.format("%10s %8s", "followees", "recipes"));
+        for (ServiceConfig.FeedMode mode : ServiceConfig.FeedMode.values()) {
+            header.append(String.format(" %13s", mode.name().toLowerCase() + " (ms)"));
+        }
+        report.add(header.append("  same results").toString());
+        for (int followees : followeeCounts) {
+            transactionTemplate.executeWithoutResult(status -> {
+                report.add(runCount(followees, rounds));
+                status.setRollbackOnly();
+            });
+        }
+        report.forEach(line -> log.info("{}", line));
+        return report;
+    }
+
+    private String runCount(int followees, int rounds) {
+        // as register does, so a user registered meanwhile cannot take the same ID
+        long userId = idAllocator.next(IdAllocator.IdSequence.USER);
+        jdbcTemplate.update("INSERT INTO users (AuthorId, AuthorName, Following, IsDeleted) VALUES (?, ?, ?, FALSE)",
+                userId, "feed-benchmark-" + userId, followees);
+        int followed = jdbcTemplate.update(FOLLOW_SQL, userId, userId, followees);
+        feedTimeline.fanIn(userId);
+        jdbcTemplate.execute("ANALYZE user_follows");
+        Long recipes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipes r " +
+                "WHERE r.AuthorId IN (SELECT FollowingId FROM user_follows WHERE FollowerId = ?)", Long.class, userId);
+        String category = jdbcTemplate.query(CATEGORY_SQL, rs -> rs.next() ? rs.getString(1) : null);
+        AuthInfo auth = AuthInfo.builder().authorId(userId).build();
+
+        Map<ServiceConfig.FeedMode, List<List<FeedItem>>> results = new EnumMap<>(ServiceConfig.FeedMode.class);
+        StringBuilder line = new StringBuilder(String.format("%10d %8d", followed, recipes));
+        for (ServiceConfig.FeedMode mode : ServiceConfig.FeedMode.values()) {
+            List<List<FeedItem>> pages = new ArrayList<>();
+            line.append(String.format(" %13.2f", time(auth, category, mode, rounds, pages)));
+            results.put(mode, pages);
+        }
+        boolean same = results.values().stream().distinct().count() == 1;
+        return line.append("  ").append(same ? "yes" : "NO").toString();
+    }
+
+    /**
+     * Reads the pages {@code rounds} times and returns the median latency of a page, in milliseconds.
+     * The pages of the last round are added to {@code results}.
+     */
+    private double time(AuthInfo auth, String category, ServiceConfig.FeedMode mode, int rounds,
+                        List<List<FeedItem>> results) {
+        double[] samples = new double[rounds];
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (String pageCategory : new String[]{null, category}) {
+                for (int page : PAGES) {
+                    List<FeedItem> items = userService.feed(auth, page, PAGE_SIZE, pageCategory, false, mode).getItems();
+                    if (round == rounds - 1) {
+                        results.add(items);
+                    }
+                }
+            }
+            samples[round] = (System.nanoTime() - start) / 1e6 / (2 * PAGES.length);
+        }
+        Arrays.sort(samples);
+        return samples[rounds / 2];
+    }
+}
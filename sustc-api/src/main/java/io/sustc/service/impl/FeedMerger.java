@@ -0,0 +1,110 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Reads the newest recipes of the followed authors for {@link UserServiceImpl#feed} in
+ * {@link ServiceConfig.FeedMode#MERGE} mode, as a k-way merge of the recipes of each author.
+ * <p>
+ * One statement reads, for every followed author, at most as many of their newest recipes as the page needs,
+ * each from a short range of the {@code (AuthorId, DatePublished, RecipeId)} index: the category and the
+ * cursor are applied inside these ranges. The recipes arrive grouped by author and newest first, and a heap
+ * of the heads of these runs merges them, stopping as soon as the page is complete, instead of sorting all
+ * the recipes of all the followed authors.
+ */
+@Component
+public class FeedMerger {
+
+    /**
+     * Newest first, a missing publication date before any other as in {@code ORDER BY ... DESC}.
+     */
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator
+            .comparing(Entry::datePublished, Comparator.nullsFirst(Comparator.<Timestamp>reverseOrder()))
+            .thenComparing(Comparator.comparingLong(Entry::recipeId).reversed());
+
+    /**
+     * Reads the dates as they are stored, without the gaps and overlaps of the local daylight saving time.
+     */
+    private static final Calendar UTC_CALENDAR = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * A recipe of the feed, with its sort keys for {@link Keyset#encode}.
+     */
+    public record Entry(long recipeId, Timestamp datePublished, String[] keys) {
+    }
+
+    /**
+     * The first {@code limit} recipes of the feed of the user.
+     *
+     * @param ordering the order of the feed, on {@code r.DatePublished} and {@code r.RecipeId}
+     * @param cursor   where the previous page ended, {@code null} from the start
+     */
+    public List<Entry> top(long userId, String category, Keyset ordering, String cursor, int limit) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder authorFilter = new StringBuilder("WHERE r.AuthorId = f.FollowingId");
+        if (category != null && !category.trim().isEmpty()) {
+            authorFilter.append(" AND r.RecipeCategory = ?");
+            params.add(category);
+        }
+        ordering.appendSeek(cursor, authorFilter, params);
+        params.add(limit);
+        params.add(userId);
+
+        String sql = "SELECT r.AuthorId, r.RecipeId, r.DatePublished, " + ordering.selectKeys() + " " +
+                "FROM user_follows f CROSS JOIN LATERAL (" +
+                "SELECT r.AuthorId, r.RecipeId, r.DatePublished FROM recipes r " + authorFilter + " " +
+                ordering.orderBy() + " LIMIT ?) r " +
+                "WHERE f.FollowerId = ? " +
+                "ORDER BY r.AuthorId, r.DatePublished DESC, r.RecipeId DESC";
+
+        List<List<Entry>> runs = new ArrayList<>();
+        long[] runAuthor = {Long.MIN_VALUE};
+        jdbcTemplate.query(sql, rs -> {
+            long authorId = rs.getLong("AuthorId");
+            if (runs.isEmpty() || authorId != runAuthor[0]) {
+                runs.add(new ArrayList<>());
+                runAuthor[0] = authorId;
+            }
+            runs.get(runs.size() - 1).add(new Entry(rs.getLong("RecipeId"), rs.getTimestamp("DatePublished", UTC_CALENDAR),
+                    ordering.readKeys(rs)));
+        }, params.toArray());
+        return merge(runs, limit);
+    }
+
+    /**
+     * Merges runs sorted newest first into the first {@code limit} entries.
+     */
+    static List<Entry> merge(List<List<Entry>> runs, int limit) {
+        // the position in its run of the head of every run, compared by the entry it points at
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(runs.size(), 1),
+                (a, b) -> NEWEST_FIRST.compare(runs.get(a[0]).get(a[1]), runs.get(b[0]).get(b[1])));
+        for (int run = 0; run < runs.size(); run++) {
+            if (!runs.get(run).isEmpty()) {
+                heads.add(new int[]{run, 0});
+            }
+        }
+        List<Entry> merged = new ArrayList<>(Math.min(limit, 1024));
+        while (merged.size() < limit && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Entry> run = runs.get(head[0]);
+            merged.add(run.get(head[1]));
+            if (++head[1] < run.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+}
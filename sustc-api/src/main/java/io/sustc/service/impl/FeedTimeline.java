@@ -0,0 +1,193 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Keeps a timeline per user of the recipes of the authors they follow, read by {@link UserServiceImpl#feed}
+ * in {@link ServiceConfig.FeedMode#TIMELINE} mode as one range of the {@code (UserId, DatePublished, RecipeId)}
+ * index, instead of merging the recipes of every followed author.
+ * <p>
+ * A new recipe is written to the timeline of every follower of its author (fan-out on write), a follow adds
+ * the recipes of the author to the timeline of the follower and an unfollow removes them. The recipes of the
+ * authors in {@code feed_celebrities}, who had at least {@link ServiceConfig.Feed#getCelebrityFollowers()}
+ * followers when the timelines were last built, are not fanned out: the feed reads them from the recipes when
+ * it is requested. The celebrities are only chosen again by {@link #rebuild}.
+ * <p>
+ * A recipe created while its author gains a follower can miss the timeline of that follower, as neither
+ * statement sees the other one; {@code db feed verify} reports such rows and {@code db feed rebuild} repairs them.
+ */
+@Component
+@Slf4j
+public class FeedTimeline {
+
+    static final String TIMELINE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS feed_timeline (" +
+            "    UserId BIGINT NOT NULL, " +
+            "    AuthorId BIGINT NOT NULL, " +
+            "    RecipeId BIGINT NOT NULL, " +
+            "    DatePublished TIMESTAMP" +
+            ")";
+
+    static final String CELEBRITIES_TABLE_SQL = "CREATE TABLE IF NOT EXISTS feed_celebrities (" +
+            "    AuthorId BIGINT PRIMARY KEY" +
+            ")";
+
+    private static final String FILL_CELEBRITIES_SQL = """
+            INSERT INTO feed_celebrities (AuthorId)
+            SELECT FollowingId FROM user_follows
+            GROUP BY FollowingId
+            HAVING COUNT(*) >= ?
+            """;
+
+    /**
+     * Every row the timelines should have.
+     */
+    private static final String TIMELINE_ROWS_SQL = """
+            SELECT f.FollowerId, r.AuthorId, r.RecipeId, r.DatePublished
+            FROM user_follows f
+            JOIN recipes r ON r.AuthorId = f.FollowingId
+            WHERE NOT EXISTS (SELECT 1 FROM feed_celebrities c WHERE c.AuthorId = f.FollowingId)
+            """;
+
+    private static final String FILL_TIMELINE_SQL =
+            "INSERT INTO feed_timeline (UserId, AuthorId, RecipeId, DatePublished) " + TIMELINE_ROWS_SQL;
+
+    private static final String TIMELINE_SQL = "SELECT UserId, AuthorId, RecipeId, DatePublished FROM feed_timeline";
+
+    /**
+     * Fans the recipes of a followed author out to the follower, written to the follows
+     * inserted by a {@code followed} CTE, see {@link FollowEngine}.
+     */
+    static final String FAN_IN_SQL = """
+            INSERT INTO feed_timeline (UserId, AuthorId, RecipeId, DatePublished)
+            SELECT f.FollowerId, r.AuthorId, r.RecipeId, r.DatePublished
+            FROM followed f
+            JOIN recipes r ON r.AuthorId = f.FollowingId
+            WHERE NOT EXISTS (SELECT 1 FROM feed_celebrities c WHERE c.AuthorId = f.FollowingId)
+            """;
+
+    /**
+     * Removes the recipes of an unfollowed author from the timeline of the follower,
+     * for the follows deleted by an {@code unfollowed} CTE, see {@link FollowEngine}.
+     */
+    static final String FAN_OUT_SQL = """
+            DELETE FROM feed_timeline t
+            USING unfollowed f
+            WHERE t.UserId = f.FollowerId AND t.AuthorId = f.FollowingId
+            """;
+
+    private static final String RECIPE_CREATED_SQL = """
+            INSERT INTO feed_timeline (UserId, AuthorId, RecipeId, DatePublished)
+            SELECT f.FollowerId, r.AuthorId, r.RecipeId, r.DatePublished
+            FROM recipes r
+            JOIN user_follows f ON f.FollowingId = r.AuthorId
+            WHERE r.RecipeId = ?
+              AND NOT EXISTS (SELECT 1 FROM feed_celebrities c WHERE c.AuthorId = r.AuthorId)
+            """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    @Autowired
+    private PageCounter pageCounter;
+
+    /**
+     * Chooses the celebrities and fans out the recipes of everyone else, into the empty tables of the import.
+     */
+    public void fill() {
+        int celebrities = jdbcTemplate.update(FILL_CELEBRITIES_SQL, serviceConfig.getFeed().getCelebrityFollowers());
+        int rows = jdbcTemplate.update(FILL_TIMELINE_SQL);
+        log.info("Filled the feed timelines with {} recipes, {} celebrity authors are read on demand", rows, celebrities);
+    }
+
+    /**
+     * Builds the timelines again from the follows and recipes, choosing the celebrities again.
+     *
+     * @return the number of timeline rows
+     */
+    public int rebuild() {
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("TRUNCATE feed_timeline, feed_celebrities");
+            jdbcTemplate.update(FILL_CELEBRITIES_SQL, serviceConfig.getFeed().getCelebrityFollowers());
+            return jdbcTemplate.update(FILL_TIMELINE_SQL);
+        });
+        jdbcTemplate.execute("ANALYZE feed_timeline, feed_celebrities");
+        pageCounter.invalidate();
+        log.info("Rebuilt the feed timelines with {} recipes", rows);
+        return rows == null ? 0 : rows;
+    }
+
+    public void recipeCreated(long recipeId) {
+        jdbcTemplate.update(RECIPE_CREATED_SQL, recipeId);
+    }
+
+    public void recipeDeleted(long recipeId, long authorId) {
+        jdbcTemplate.update("DELETE FROM feed_timeline WHERE AuthorId = ? AND RecipeId = ?", authorId, recipeId);
+    }
+
+    /**
+     * Updates the timeline of the follower after {@link FollowEngine} added or removed a follow
+     * with separate statements.
+     */
+    public void followChanged(long followerId, long followeeId, boolean followed) {
+        String sql = followed ? FAN_IN_SQL : FAN_OUT_SQL;
+        String relation = followed ? "followed" : "unfollowed";
+        jdbcTemplate.update("WITH " + relation + " AS (SELECT ?::bigint AS FollowerId, ?::bigint AS FollowingId) " + sql,
+                followerId, followeeId);
+    }
+
+    /**
+     * Builds again the timeline rows of the follows between the given users, after these follows were
+     * rewritten without going through {@link FollowEngine}.
+     */
+    public void followsRewritten(Long[] userIds) {
+        jdbcTemplate.update("DELETE FROM feed_timeline WHERE UserId = ANY(?) AND AuthorId = ANY(?)", ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", userIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", userIds));
+        });
+        jdbcTemplate.update(FILL_TIMELINE_SQL + " AND f.FollowerId = ANY(?) AND f.FollowingId = ANY(?)", ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", userIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", userIds));
+        });
+    }
+
+    /**
+     * Builds again the timeline of a user from their follows, after these were written directly.
+     */
+    public void fanIn(long userId) {
+        jdbcTemplate.update("DELETE FROM feed_timeline WHERE UserId = ?", userId);
+        jdbcTemplate.update(FILL_TIMELINE_SQL + " AND f.FollowerId = ?", userId);
+    }
+
+    /**
+     * Drops the timeline of a deleted user, and their recipes from the timelines of their former followers.
+     */
+    public void accountDeleted(long userId) {
+        jdbcTemplate.update("DELETE FROM feed_timeline WHERE UserId = ? OR AuthorId = ?", userId, userId);
+        jdbcTemplate.update("DELETE FROM feed_celebrities WHERE AuthorId = ?", userId);
+    }
+
+    /**
+     * The timeline checked against the follows and recipes, for {@code db feed verify}.
+     *
+     * @return the missing and the extra timeline rows
+     */
+    public List<String> verify() {
+        Long missing = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (" + TIMELINE_ROWS_SQL + " EXCEPT " + TIMELINE_SQL + ") missing", Long.class);
+        Long extra = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (" + TIMELINE_SQL + " EXCEPT " + TIMELINE_ROWS_SQL + ") extra", Long.class);
+        return List.of("missing timeline rows: " + missing, "extra timeline rows: " + extra);
+    }
+}
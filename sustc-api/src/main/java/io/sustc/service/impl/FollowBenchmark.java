@@ -0,0 +1,178 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the {@link ServiceConfig.FollowMode modes} of {@link FollowEngine} under contention.
+ * <p>
+ * A few users, whose counters match their follows, are picked. Several threads toggle random follows
+ * between them, then the counters are checked against {@code user_follows} again. Toggles can't run in a
+ * transaction rolled back at the end, since they must commit to contend, so the follows and counters of
+ * these users are saved first and restored after every mode, with their feed timelines.
+ */
+@Component
+@Slf4j
+public class FollowBenchmark {
+
+    private static final String USERS_SQL = """
+            SELECT u.AuthorId FROM users u
+            WHERE u.IsDeleted = FALSE
+              AND u.Followers = (SELECT COUNT(*) FROM user_follows f WHERE f.FollowingId = u.AuthorId)
+              AND u.Following = (SELECT COUNT(*) FROM user_follows f WHERE f.FollowerId = u.AuthorId)
+            ORDER BY u.AuthorId
+            LIMIT ?
+            """;
+
+    private static final String DRIFT_SQL = """
+            SELECT COUNT(*) FROM users u
+            WHERE u.AuthorId = ANY(?)
+              AND (u.Followers <> (SELECT COUNT(*) FROM user_follows f WHERE f.FollowingId = u.AuthorId)
+                OR u.Following <> (SELECT COUNT(*) FROM user_follows f WHERE f.FollowerId = u.AuthorId))
+            """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private FollowEngine followEngine;
+
+    @Autowired
+    private PageCounter pageCounter;
+
+    @Autowired
+    private FeedTimeline feedTimeline;
+
+    @Autowired
+    private FollowRatioLeader followRatioLeader;
+
+    /**
+     * @param threads    threads toggling at once, each on its own connection
+     * @param users      users the follows are toggled between, fewer of them means more contention
+     * @param operations toggles per mode, over all the threads
+     */
+    public List<String> run(int threads, int users, int operations) {
+        if (threads <= 0 || users < 2 || operations <= 0) {
+            throw new IllegalArgumentException("Threads and operations must be positive, with at least 2 users");
+        }
+        Long[] ids = jdbcTemplate.queryForList(USERS_SQL, Long.class, users).toArray(Long[]::new);
+        if (ids.length < 2) {
+            throw new IllegalArgumentException("Not enough users with consistent follow counters");
+        }
+        Snapshot snapshot = save(ids);
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-10s %7s %7s %8s %8s %10s %14s", "mode", "threads", "users", "toggles",
+                "failed", "toggles/s", "drifted users"));
+        try {
+            for (ServiceConfig.FollowMode mode : ServiceConfig.FollowMode.values()) {
+                try {
+                    report.add(runMode(mode, ids, threads, operations));
+                } finally {
+                    restore(ids, snapshot);
+                }
+            }
+        } finally {
+            pageCounter.invalidate();
+        }
+        report.forEach(line -> log.info("{}", line));
+        return report;
+    }
+
+    private String runMode(ServiceConfig.FollowMode mode, Long[] ids, int threads, int operations) {
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int toggles = operations / threads + (thread < operations % threads ? 1 : 0);
+                Random random = new Random(thread);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < toggles; i++) {
+                        int follower = random.nextInt(ids.length);
+                        int followee = (follower + 1 + random.nextInt(ids.length - 1)) % ids.length;
+                        try {
+                            followEngine.toggle(ids[follower], ids[followee], mode);
+                        } catch (RuntimeException e) {
+                            log.debug("Toggle failed in {} mode: {}", mode, e.getMessage());
+                            failed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Follow benchmark interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Integer drifted = jdbcTemplate.query(DRIFT_SQL, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                rs -> rs.next() ? rs.getInt(1) : 0);
+        return String.format("%-10s %7d %7d %8d %8d %10.0f %14d", mode.name().toLowerCase(), threads, ids.length,
+                operations, failed.get(), operations / seconds, drifted);
+    }
+
+    private Snapshot save(Long[] ids) {
+        List<long[]> follows = jdbcTemplate.query(
+                "SELECT FollowerId, FollowingId FROM user_follows WHERE FollowerId = ANY(?) AND FollowingId = ANY(?)",
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids));
+                    ps.setArray(2, ps.getConnection().createArrayOf("bigint", ids));
+                },
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)});
+        Map<Long, int[]> counters = new HashMap<>();
+        jdbcTemplate.query("SELECT AuthorId, Followers, Following FROM users WHERE AuthorId = ANY(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                rs -> {
+                    counters.put(rs.getLong(1), new int[]{rs.getInt(2), rs.getInt(3)});
+                });
+        return new Snapshot(follows, counters);
+    }
+
+    private void restore(Long[] ids, Snapshot snapshot) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM user_follows WHERE FollowerId = ANY(?) AND FollowingId = ANY(?)", ps -> {
+                ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids));
+                ps.setArray(2, ps.getConnection().createArrayOf("bigint", ids));
+            });
+            jdbcTemplate.batchUpdate("INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)",
+                    snapshot.follows(), snapshot.follows().size(), (ps, follow) -> {
+                        ps.setLong(1, follow[0]);
+                        ps.setLong(2, follow[1]);
+                    });
+            jdbcTemplate.batchUpdate("UPDATE users SET Followers = ?, Following = ? WHERE AuthorId = ?",
+                    new ArrayList<>(snapshot.counters().entrySet()), snapshot.counters().size(), (ps, entry) -> {
+                        ps.setInt(1, entry.getValue()[0]);
+                        ps.setInt(2, entry.getValue()[1]);
+                        ps.setLong(3, entry.getKey());
+                    });
+            feedTimeline.followsRewritten(ids);
+        });
+        followRatioLeader.usersChanged(Arrays.asList(ids));
+    }
+
+    private record Snapshot(List<long[]> follows, Map<Long, int[]> counters) {
+    }
+}
@@ -0,0 +1,207 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Toggles the follow of a user by another one, for {@link UserServiceImpl#follow}.
+ * <p>
+ * In {@link ServiceConfig.FollowMode#ATOMIC} mode, the users are checked, the follow is added or removed and
+ * both counters are adjusted by one statement. It locks the two user rows first, in the order of their IDs,
+ * so concurrent toggles of the same users wait for each other instead of deadlocking. The counters are
+ * changed by the rows actually inserted or deleted, so they cannot drift from {@code user_follows}.
+ * The same statement adds or removes the recipes of the followee in the {@link FeedTimeline} of the follower.
+ */
+@Component
+@Slf4j
+public class FollowEngine {
+
+    private static final String TOGGLE_SQL = """
+            WITH locked AS (
+                SELECT AuthorId FROM users
+                WHERE AuthorId IN (?, ?) AND IsDeleted = FALSE
+                ORDER BY AuthorId
+                FOR NO KEY UPDATE
+            ),
+            follower AS (SELECT AuthorId FROM locked WHERE AuthorId = ?),
+            followee AS (SELECT AuthorId FROM locked WHERE AuthorId = ?),
+            unfollowed AS (
+                DELETE FROM user_follows
+                WHERE FollowerId = (SELECT AuthorId FROM follower)
+                  AND FollowingId = (SELECT AuthorId FROM followee)
+                RETURNING FollowerId, FollowingId, -1 AS delta
+            ),
+            followed AS (
+                INSERT INTO user_follows (FollowerId, FollowingId)
+                SELECT follower.AuthorId, followee.AuthorId FROM follower, followee
+                WHERE NOT EXISTS (SELECT 1 FROM unfollowed)
+                ON CONFLICT DO NOTHING
+                RETURNING FollowerId, FollowingId, 1 AS delta
+            ),
+            fanned_in AS (
+            %s
+            ),
+            fanned_out AS (
+            %s
+            ),
+            toggled AS (
+                SELECT * FROM unfollowed
+                UNION ALL
+                SELECT * FROM followed
+            ),
+            counted AS (
+                UPDATE users u
+                SET Following = CASE WHEN u.AuthorId = t.FollowerId
+                        THEN GREATEST(u.Following + t.delta, 0) ELSE u.Following END,
+                    Followers = CASE WHEN u.AuthorId = t.FollowingId
+                        THEN GREATEST(u.Followers + t.delta, 0) ELSE u.Followers END
+                FROM toggled t
+                WHERE u.AuthorId IN (t.FollowerId, t.FollowingId)
+                RETURNING u.AuthorId
+            )
+            SELECT EXISTS (SELECT 1 FROM follower) AS follower_valid,
+                   EXISTS (SELECT 1 FROM followee) AS followee_valid,
+                   EXISTS (SELECT 1 FROM counted) AS toggled
+            """.formatted(FeedTimeline.FAN_IN_SQL.strip(), FeedTimeline.FAN_OUT_SQL.strip());
+
+    /**
+     * The counters of the users which don't match {@code user_follows}, set to its counts.
+     */
+    private static final String REPAIR_COUNTS_SQL = """
+            UPDATE users u
+            SET Followers = t.followers, Following = t.following
+            FROM (SELECT u2.AuthorId, COALESCE(fr.n, 0) AS followers, COALESCE(fg.n, 0) AS following
+                  FROM users u2
+                  LEFT JOIN (SELECT FollowingId, COUNT(*) AS n FROM user_follows GROUP BY FollowingId) fr
+                      ON fr.FollowingId = u2.AuthorId
+                  LEFT JOIN (SELECT FollowerId, COUNT(*) AS n FROM user_follows GROUP BY FollowerId) fg
+                      ON fg.FollowerId = u2.AuthorId) t
+            WHERE u.AuthorId = t.AuthorId
+              AND (u.Followers, u.Following) IS DISTINCT FROM (t.followers, t.following)
+            """;
+
+    private static final String LOCK_SQL =
+            "SELECT AuthorId FROM users WHERE AuthorId IN (?, ?) ORDER BY AuthorId FOR NO KEY UPDATE";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    @Autowired
+    private FeedTimeline feedTimeline;
+
+    @Autowired
+    private ActiveUsers activeUsers;
+
+    /**
+     * Sets the {@code Followers} and {@code Following} counters of every user to the counts of
+     * {@code user_follows}, where they differ.
+     *
+     * @return the number of users repaired
+     */
+    public int repairCounts() {
+        int repaired = jdbcTemplate.update(REPAIR_COUNTS_SQL);
+        log.info("Repaired the follow counters of {} users", repaired);
+        return repaired;
+    }
+
+    /**
+     * Adds the follow if it does not exist, removes it otherwise, with the mode configured.
+     *
+     * @throws SecurityException if either user does not exist or is deleted
+     */
+    public void toggle(long followerId, long followeeId) {
+        toggle(followerId, followeeId, serviceConfig.getFollow().getMode());
+    }
+
+    public void toggle(long followerId, long followeeId, ServiceConfig.FollowMode mode) {
+        if (mode == ServiceConfig.FollowMode.STATEMENTS) {
+            toggleByStatements(followerId, followeeId);
+        } else {
+            toggleAtomically(followerId, followeeId);
+        }
+    }
+
+    private void toggleAtomically(long followerId, long followeeId) {
+        if (runToggle(followerId, followeeId)) {
+            return;
+        }
+        // the follow was added by a toggle which committed while the statement waited for the locks, after it
+        // took its snapshot: the delete didn't see it and the insert conflicted. Holding the locks, the next
+        // statement of the transaction sees every committed toggle of these users
+        log.debug("Toggling the follow of user {} by user {} again, under the locks", followeeId, followerId);
+        Boolean toggled = transactionTemplate.execute(status -> {
+            jdbcTemplate.query(LOCK_SQL, rs -> {
+            }, followerId, followeeId);
+            return runToggle(followerId, followeeId);
+        });
+        if (!Boolean.TRUE.equals(toggled)) {
+            throw new IllegalStateException("Follow of user " + followeeId + " by user " + followerId + " not toggled");
+        }
+    }
+
+    /**
+     * @return whether the follow was added or removed
+     */
+    private boolean runToggle(long followerId, long followeeId) {
+        ToggleResult result = jdbcTemplate.queryForObject(TOGGLE_SQL, (rs, rowNum) -> new ToggleResult(
+                        rs.getBoolean("follower_valid"), rs.getBoolean("followee_valid"), rs.getBoolean("toggled")),
+                followerId, followeeId, followerId, followeeId);
+        if (result == null || !result.followerValid()) {
+            throw new SecurityException("当前用户无效");
+        }
+        if (!result.followeeValid()) {
+            throw new SecurityException("目标用户不存在");
+        }
+        return result.toggled();
+    }
+
+    /**
+     * The check, write and counter updates as separate statements. Concurrent toggles of the same follow can
+     * both see it missing, and one of them fails on the primary key, or both see it and both decrement the
+     * counters.
+     */
+    private void toggleByStatements(long followerId, long followeeId) {
+        if (!userExists(followerId)) {
+            throw new SecurityException("当前用户无效");
+        }
+        if (!userExists(followeeId)) {
+            throw new SecurityException("目标用户不存在");
+        }
+        String checkSql = "SELECT COUNT(*) FROM user_follows WHERE FollowerId = ? AND FollowingId = ?";
+        Integer count = jdbcTemplate.queryForObject(checkSql, Integer.class, followerId, followeeId);
+
+        if (count == null || count == 0) {
+            String insertSql = "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)";
+            jdbcTemplate.update(insertSql, followerId, followeeId);
+            jdbcTemplate.update("UPDATE users SET Following = Following + 1 WHERE AuthorId = ?", followerId);
+            jdbcTemplate.update("UPDATE users SET Followers = Followers + 1 WHERE AuthorId = ?", followeeId);
+            feedTimeline.followChanged(followerId, followeeId, true);
+        } else {
+            String deleteSql = "DELETE FROM user_follows WHERE FollowerId = ? AND FollowingId = ?";
+            jdbcTemplate.update(deleteSql, followerId, followeeId);
+            jdbcTemplate.update("UPDATE users SET Following = GREATEST(Following - 1, 0) WHERE AuthorId = ?", followerId);
+            jdbcTemplate.update("UPDATE users SET Followers = GREATEST(Followers - 1, 0) WHERE AuthorId = ?", followeeId);
+            feedTimeline.followChanged(followerId, followeeId, false);
+        }
+    }
+
+    private boolean userExists(long userId) {
+        try {
+            return activeUsers.isActive(userId);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private record ToggleResult(boolean followerValid, boolean followeeValid, boolean toggled) {
+    }
+}
@@ -0,0 +1,202 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the user of {@link UserServiceImpl#getUserWithHighestFollowRatio} between the follows and account
+ * deletions, instead of counting the follows of every user on every call.
+ * <p>
+ * A follow or a deletion only changes the counts of the users it touches, so these users are counted again
+ * from {@code user_follows} and compared with the leader: a user whose ratio grew can take the lead, and the
+ * leader keeps it while its own ratio does not drop. Only when it does, or when the leader is deleted, are all
+ * the users scanned again, on the next call. Ratios are compared exactly, by cross-multiplying the counts,
+ * and a tie goes to the smaller {@code AuthorId}.
+ */
+@Component
+@Slf4j
+public class FollowRatioLeader implements DataLifecycleListener {
+
+    private static final String SCAN_SQL = """
+            SELECT
+                u.AuthorId,
+                u.AuthorName,
+                COALESCE(f1.follower_count, 0) AS follower_count,
+                COALESCE(f2.following_count, 0) AS following_count
+            FROM users u
+            LEFT JOIN (
+                SELECT FollowingId, COUNT(*) AS follower_count
+                FROM user_follows
+                GROUP BY FollowingId
+            ) f1 ON u.AuthorId = f1.FollowingId
+            LEFT JOIN (
+                SELECT FollowerId, COUNT(*) AS following_count
+                FROM user_follows
+                GROUP BY FollowerId
+            ) f2 ON u.AuthorId = f2.FollowerId
+            WHERE u.IsDeleted = FALSE
+              AND COALESCE(f2.following_count, 0) > 0
+            """;
+
+    /**
+     * The counts of a few users, from the indexes on both columns of {@code user_follows}.
+     */
+    private static final String COUNT_SQL = """
+            SELECT u.AuthorId, u.AuthorName,
+                   (SELECT COUNT(*) FROM user_follows f WHERE f.FollowingId = u.AuthorId) AS follower_count,
+                   CASE WHEN u.IsDeleted THEN 0
+                        ELSE (SELECT COUNT(*) FROM user_follows f WHERE f.FollowerId = u.AuthorId) END AS following_count
+            FROM users u
+            WHERE u.AuthorId = ANY(?)
+            """;
+
+    private static final RowMapper<Candidate> CANDIDATE_MAPPER = (rs, rowNum) -> new Candidate(
+            rs.getLong("AuthorId"), rs.getString("AuthorName"), rs.getInt("follower_count"), rs.getInt("following_count"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * The leader while {@link #known}, {@code null} when no active user follows anyone.
+     */
+    private Candidate leader;
+
+    private boolean known;
+
+    /**
+     * Incremented by every change, so a scan which a change may have missed is not kept.
+     */
+    private long generation;
+
+    /**
+     * @return the leader as returned by {@code getUserWithHighestFollowRatio}, {@code null} if there is none
+     */
+    public Map<String, Object> leader() {
+        long stamp;
+        synchronized (this) {
+            if (known) {
+                return toMap(leader);
+            }
+            stamp = generation;
+        }
+        Candidate best = null;
+        for (Candidate candidate : jdbcTemplate.query(SCAN_SQL, CANDIDATE_MAPPER)) {
+            if (best == null || candidate.beats(best)) {
+                best = candidate;
+            }
+        }
+        synchronized (this) {
+            if (generation == stamp) {
+                leader = best;
+                known = true;
+            }
+        }
+        return toMap(best);
+    }
+
+    /**
+     * Called once the follows of the given users have changed and are committed. The users are counted outside
+     * the lock; if another change came in meanwhile, its counts and these may be merged in either order, so the
+     * leader is scanned again on the next call instead.
+     */
+    public void usersChanged(Collection<Long> userIds) {
+        long stamp;
+        synchronized (this) {
+            stamp = ++generation;
+            if (!known || userIds.isEmpty()) {
+                return;
+            }
+        }
+        Long[] ids = userIds.toArray(new Long[0]);
+        List<Candidate> candidates = jdbcTemplate.query(COUNT_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)), CANDIDATE_MAPPER);
+        merge(candidates, stamp);
+    }
+
+    private synchronized void merge(List<Candidate> candidates, long stamp) {
+        if (!known) {
+            return;
+        }
+        if (generation != stamp) {
+            log.debug("Follow ratio leader changed concurrently, scanning again");
+            known = false;
+            leader = null;
+            return;
+        }
+        if (leader != null) {
+            for (Candidate candidate : candidates) {
+                if (candidate.authorId() != leader.authorId()) {
+                    continue;
+                }
+                if (!candidate.eligible() || candidate.ratioBelow(leader)) {
+                    // the next leader can be anyone
+                    log.debug("Follow ratio leader {} dropped, scanning again", leader.authorId());
+                    known = false;
+                    leader = null;
+                    return;
+                }
+                leader = candidate;
+            }
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate.eligible() && (leader == null || candidate.beats(leader))) {
+                leader = candidate;
+            }
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        known = false;
+        leader = null;
+    }
+
+    @Override
+    public void afterImport() {
+        invalidate();
+    }
+
+    @Override
+    public void afterDrop() {
+        invalidate();
+    }
+
+    private static Map<String, Object> toMap(Candidate candidate) {
+        if (candidate == null) {
+            return null;
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("AuthorId", candidate.authorId());
+        result.put("AuthorName", candidate.authorName());
+        result.put("Ratio", candidate.followers() * 1.0 / candidate.following());
+        return result;
+    }
+
+    /**
+     * A user with the counts of its follows, {@code following} is 0 for a deleted user.
+     */
+    private record Candidate(long authorId, String authorName, int followers, int following) {
+
+        boolean eligible() {
+            return following > 0;
+        }
+
+        boolean ratioBelow(Candidate other) {
+            return (long) followers * other.following < (long) other.followers * following;
+        }
+
+        boolean beats(Candidate other) {
+            long cross = (long) followers * other.following;
+            long otherCross = (long) other.followers * following;
+            return cross > otherCross || (cross == otherCross && authorId < other.authorId);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out the IDs of new users, recipes and reviews from PostgreSQL sequences.
+ * <p>
+ * Each sequence is owned by the ID column, so it is dropped together with the table, and it is seeded
+ * from the imported maximum after {@link DatabaseServiceImpl#importData}. When the data was imported
+ * before the sequences existed, the first allocation creates and seeds the missing sequence.
+ * <p>
+ * Unlike {@code MAX(id) + 1}, a sequence never gives the same ID to two concurrent writers,
+ * although a rolled back insert leaves a gap. In {@link ServiceConfig.IdMode#BLOCK} mode every
+ * {@code nextval} reserves a whole block of IDs, which are then handed out without any round trip.
+ */
+@Component
+@Slf4j
+public class IdAllocator implements DataLifecycleListener {
+
+    public enum IdSequence {
+        USER("users_authorid_seq", "users", "AuthorId", 9853),
+        RECIPE("recipes_recipeid_seq", "recipes", "RecipeId", 0),
+        REVIEW("reviews_reviewid_seq", "reviews", "ReviewId", 0);
+
+        private final String sequence;
+
+        private final String table;
+
+        private final String column;
+
+        /**
+         * The ID preceding the first one allocated in an empty table.
+         */
+        private final long floor;
+
+        IdSequence(String sequence, String table, String column, long floor) {
+            this.sequence = sequence;
+            this.table = table;
+            this.column = column;
+            this.floor = floor;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final Map<IdSequence, Block> blocks = new EnumMap<>(IdSequence.class);
+
+    public IdAllocator() {
+        for (IdSequence sequence : IdSequence.values()) {
+            blocks.put(sequence, new Block());
+        }
+    }
+
+    public long next(IdSequence sequence) {
+        Block block = blocks.get(sequence);
+        synchronized (block) {
+            ensureReady(sequence, block);
+            if (block.next == block.limit) {
+                long first = nextval(sequence);
+                block.next = first;
+                block.limit = first + blockSize();
+            }
+            return block.next++;
+        }
+    }
+
+    /**
+     * {@code count} new IDs at once: the rest of the current block, then as many new blocks as needed,
+     * all reserved in one round trip.
+     */
+    public long[] next(IdSequence sequence, int count) {
+        long[] ids = new long[count];
+        Block block = blocks.get(sequence);
+        synchronized (block) {
+            ensureReady(sequence, block);
+            int taken = block.take(ids, 0);
+            if (taken < count) {
+                int blockSize = blockSize();
+                int needed = (count - taken + blockSize - 1) / blockSize;
+                List<Long> firsts = jdbcTemplate.queryForList(
+                        "SELECT nextval(?::regclass) FROM generate_series(1, ?)", Long.class, sequence.sequence, needed);
+                for (long first : firsts) {
+                    block.next = first;
+                    block.limit = first + blockSize;
+                    taken = block.take(ids, taken);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void afterImport() {
+        for (IdSequence sequence : IdSequence.values()) {
+            Block block = blocks.get(sequence);
+            synchronized (block) {
+                jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence.sequence
+                        + " OWNED BY " + sequence.table + "." + sequence.column);
+                seed(sequence);
+                block.reset();
+                block.ready = true;
+            }
+        }
+    }
+
+    @Override
+    public void afterDrop() {
+        for (Block block : blocks.values()) {
+            synchronized (block) {
+                block.reset();
+            }
+        }
+    }
+
+    private void ensureReady(IdSequence sequence, Block block) {
+        if (!block.ready) {
+            // committed on its own, the sequence must survive a rollback of the caller's transaction
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transaction.executeWithoutResult(status -> ensureSequence(sequence));
+            block.ready = true;
+        }
+    }
+
+    private void ensureSequence(IdSequence sequence) {
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT to_regclass(?) IS NOT NULL", Boolean.class, sequence.sequence);
+        if (Boolean.TRUE.equals(exists)) {
+            // the block size may have been configured differently when the sequence was seeded
+            jdbcTemplate.execute("ALTER SEQUENCE " + sequence.sequence + " INCREMENT BY " + blockSize());
+            return;
+        }
+        log.info("Creating missing sequence {}", sequence.sequence);
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence.sequence
+                + " OWNED BY " + sequence.table + "." + sequence.column);
+        seed(sequence);
+    }
+
+    /**
+     * Restarts the sequence right after the largest ID in the table.
+     */
+    private void seed(IdSequence sequence) {
+        jdbcTemplate.execute("ALTER SEQUENCE " + sequence.sequence + " INCREMENT BY " + blockSize());
+        Long next = jdbcTemplate.queryForObject(
+                "SELECT setval(?::regclass, COALESCE(MAX(" + sequence.column + "), ?) + 1, false) FROM " + sequence.table,
+                Long.class, sequence.sequence, sequence.floor);
+        log.debug("Sequence {} starts at {}", sequence.sequence, next);
+    }
+
+    private long nextval(IdSequence sequence) {
+        Long value = jdbcTemplate.queryForObject("SELECT nextval(?::regclass)", Long.class, sequence.sequence);
+        if (value == null) {
+            throw new IllegalStateException("nextval returned no value for " + sequence.sequence);
+        }
+        return value;
+    }
+
+    private int blockSize() {
+        ServiceConfig.IdAllocation config = serviceConfig.getIdAllocation();
+        return config.getMode() == ServiceConfig.IdMode.BLOCK ? Math.max(1, config.getBlockSize()) : 1;
+    }
+
+    /**
+     * The IDs reserved by the last {@code nextval} and not handed out yet, {@code [next, limit)}.
+     */
+    private static final class Block {
+
+        private boolean ready;
+
+        private long next;
+
+        private long limit;
+
+        /**
+         * Hands out IDs of the block into {@code ids} from {@code index}, until either runs out.
+         *
+         * @return the index following the last ID handed out
+         */
+        int take(long[] ids, int index) {
+            while (index < ids.length && next < limit) {
+                ids[index++] = next++;
+            }
+            return index;
+        }
+
+        void reset() {
+            ready = false;
+            next = 0;
+            limit = 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the heap high-water mark of an import.
+ * <p>
+ * The importers call {@link #sampleHeap()} every time they flush a chunk, which is when the buffered rows peak.
+ * The sum of the per-pool peaks reported by the JVM is kept as well: it also covers the allocations between
+ * two samples, but overestimates since the pools don't necessarily peak at the same time.
+ */
+@Component
+@Slf4j
+public class ImportMetrics {
+
+    private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+    private final AtomicLong heapHighWaterMark = new AtomicLong();
+
+    private final AtomicLong chunks = new AtomicLong();
+
+    private volatile long startTime;
+
+    private volatile long baseline;
+
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        baseline = currentHeapUsed();
+        heapHighWaterMark.set(baseline);
+        chunks.set(0);
+        startTime = System.currentTimeMillis();
+    }
+
+    public void sampleHeap() {
+        chunks.incrementAndGet();
+        long used = currentHeapUsed();
+        heapHighWaterMark.accumulateAndGet(used, Math::max);
+    }
+
+    public void finish() {
+        sampleHeap();
+        log.info("Import took {} ms in {} chunks, heap high-water mark {} MB (baseline {} MB, pool peaks up to {} MB)",
+                System.currentTimeMillis() - startTime, chunks.get(), toMegabytes(getHeapHighWaterMark()),
+                toMegabytes(baseline), toMegabytes(getHeapPoolPeak()));
+    }
+
+    /**
+     * The largest heap usage sampled since the last {@link #start()}, in bytes.
+     */
+    public long getHeapHighWaterMark() {
+        return heapHighWaterMark.get();
+    }
+
+    /**
+     * Upper bound of the heap usage since the last {@link #start()}, in bytes.
+     */
+    public long getHeapPoolPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private long currentHeapUsed() {
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes >> 20;
+    }
+}
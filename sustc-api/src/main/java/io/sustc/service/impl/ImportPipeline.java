@@ -0,0 +1,102 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the steps of an import stage concurrently, each one in its own transaction on its own pooled connection.
+ * <p>
+ * Since every step is wrapped by {@link TransactionTemplate} on a worker thread, the {@link JdbcTemplate}
+ * calls made by the step (including {@code ConnectionCallback}s used for COPY) share that step's connection.
+ * A stage only returns after all of its steps have committed; the first failure is rethrown once the steps
+ * already running have ended, and the steps not started yet are skipped. The steps which committed stay
+ * committed, {@link DatabaseServiceImpl#importData} drops the tables after a failed stage.
+ */
+@Component
+@Slf4j
+public class ImportPipeline {
+
+    /**
+     * Memory for each index build and constraint validation, instead of the 64MB default.
+     */
+    static final String MAINTENANCE_WORK_MEM = "256MB";
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    public void runStage(String stage, List<Runnable> steps) {
+        long start = System.currentTimeMillis();
+        int threads = Math.min(steps.size(), Math.max(1, serviceConfig.getImporter().getParallelism()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable step : steps) {
+                futures.add(executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                    // losing the last commits on a crash is fine, the import would be rerun anyway
+                    jdbcTemplate.execute("SET LOCAL synchronous_commit = off");
+                    step.run();
+                })));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+            awaitSteps(stage, executor);
+        }
+        log.debug("Import stage '{}' ({} steps on {} connections) took {} ms",
+                stage, steps.size(), threads, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Waits for the steps running on the executor, so none of them still writes after the stage returned.
+     * A COPY or a statement does not stop when its thread is interrupted.
+     */
+    private static void awaitSteps(String stage, ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Still waiting for the steps of import stage '{}' to end", stage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes each DDL statement as a separate step of the stage.
+     */
+    public void runStatements(String stage, List<String> sqls) {
+        runStage(stage, sqls.stream()
+                .map(sql -> (Runnable) () -> {
+                    jdbcTemplate.execute("SET LOCAL maintenance_work_mem = '" + MAINTENANCE_WORK_MEM + "'");
+                    jdbcTemplate.execute(sql);
+                })
+                .collect(Collectors.toList()));
+    }
+}
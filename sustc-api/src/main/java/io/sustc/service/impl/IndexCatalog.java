@@ -0,0 +1,222 @@
+package io.sustc.service.impl;
+
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The secondary indexes of the schema, built once the data has been imported.
+ * <p>
+ * Every index serves the predicate or the {@code ORDER BY} of a service query, so the query can
+ * read the rows in the requested order and stop at the page limit instead of sorting all matches.
+ * The catalog is the single place to add one: {@link DatabaseServiceImpl#importData} builds it,
+ * and {@code db index rebuild} / {@code db index verify} manage it on a live database.
+ */
+@Component
+public class IndexCatalog {
+
+    /**
+     * Leaves room in the index pages, so that the rows added after the import split fewer pages.
+     */
+    private static final int FILLFACTOR = 90;
+
+    private static final List<IndexDefinition> INDEXES = List.of(
+            // ReviewService#listByRecipe (date_desc), refreshRecipeAggregatedRating and RecipeService#deleteRecipe
+            btree("idx_reviews_recipeid_datemodified", "reviews", "RecipeId, DateModified DESC"),
+            // ReviewService#listByRecipe (likes_desc), the review ID ends the order of the cursor pages
+            btree("idx_reviews_recipeid_likecount", "reviews", "RecipeId, LikeCount DESC, DateModified DESC, ReviewId DESC"),
+            // follower lists of UserService#getById and the follower counts of getUserWithHighestFollowRatio
+            btree("idx_user_follows_followingid", "user_follows", "FollowingId, FollowerId"),
+            // UserService#feed: recipes of each followed author, newest first
+            btree("idx_recipes_authorid_datepublished", "recipes", "AuthorId, DatePublished DESC, RecipeId DESC"),
+            // UserService#feed in timeline mode: the timeline of the user, newest first
+            btree("idx_feed_timeline_userid_datepublished", "feed_timeline", "UserId, DatePublished DESC, RecipeId DESC"),
+            // recipes and accounts deleted from the timelines of the followers
+            btree("idx_feed_timeline_authorid", "feed_timeline", "AuthorId, RecipeId"),
+            // RecipeService#searchRecipes, filter and each of the sort orders
+            btree("idx_recipes_recipecategory", "recipes", "RecipeCategory"),
+            btree("idx_recipes_aggregatedrating", "recipes", "AggregatedRating DESC, RecipeId DESC"),
+            btree("idx_recipes_datepublished", "recipes", "DatePublished DESC, RecipeId DESC"),
+            // searchRecipes (calories_asc) and getClosestCaloriePair
+            btree("idx_recipes_calories", "recipes", "Calories, RecipeId"),
+            // RecipeService#getMostComplexRecipesByIngredients
+            btree("idx_recipes_ingredientcount", "recipes", "IngredientCount DESC, RecipeId"),
+            // duplicate name check of UserService#register
+            btree("idx_users_authorname", "users", "AuthorName")
+    );
+
+    /**
+     * Serve the {@code LOWER(x) LIKE '%keyword%'} filters of {@code searchRecipes} as they are written:
+     * the trigrams of the keyword select the candidate rows and the index rechecks the pattern,
+     * so the results are exactly those of a sequential scan.
+     * Keywords shorter than three characters have no trigram and still scan the whole index.
+     */
+    private static final List<IndexDefinition> TRIGRAM_INDEXES = List.of(
+            new IndexDefinition("idx_recipes_name_trgm", "recipes", "gin", "lower((Name)::text) gin_trgm_ops"),
+            new IndexDefinition("idx_recipes_description_trgm", "recipes", "gin", "lower(Description) gin_trgm_ops")
+    );
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    /**
+     * The indexes of the catalog for the configured search backend.
+     */
+    public List<IndexDefinition> getIndexes() {
+        if (serviceConfig.getSearch().getBackend() != ServiceConfig.SearchBackend.TRIGRAM) {
+            return INDEXES;
+        }
+        List<IndexDefinition> indexes = new ArrayList<>(INDEXES);
+        indexes.addAll(TRIGRAM_INDEXES);
+        return indexes;
+    }
+
+    public static List<IndexDefinition> getTrigramIndexes() {
+        return TRIGRAM_INDEXES;
+    }
+
+    /**
+     * The {@code CREATE INDEX} statements of the catalog, which do nothing for the indexes that already exist.
+     * The extensions needed by the operator classes have to be created first, see {@link #createExtensions()}.
+     */
+    public List<String> createStatements() {
+        return getIndexes().stream().map(IndexDefinition::createSQL).collect(Collectors.toList());
+    }
+
+    /**
+     * Creates {@code pg_trgm} when the trigram search backend is configured.
+     * It is a trusted extension, so the owner of the database doesn't need to be a superuser.
+     */
+    public void createExtensions() {
+        if (serviceConfig.getSearch().getBackend() == ServiceConfig.SearchBackend.TRIGRAM) {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        }
+    }
+
+    /**
+     * Builds the missing indexes concurrently.
+     */
+    public void build() {
+        createExtensions();
+        importPipeline.runStatements("indexes", createStatements());
+    }
+
+    /**
+     * Drops and recreates every index of the catalog, one connection per index.
+     * <p>
+     * Writes to a table are blocked while its indexes are built, so this is meant for maintenance,
+     * e.g. after a large import into an existing schema or when {@link #verify()} reports a problem.
+     */
+    public void rebuild() {
+        createExtensions();
+        importPipeline.runStage("rebuild indexes", getIndexes().stream()
+                .map(index -> (Runnable) () -> {
+                    jdbcTemplate.execute("SET LOCAL maintenance_work_mem = '" + ImportPipeline.MAINTENANCE_WORK_MEM + "'");
+                    jdbcTemplate.execute("DROP INDEX IF EXISTS " + index.getName());
+                    jdbcTemplate.execute(index.createSQL());
+                })
+                .collect(Collectors.toList()));
+        analyze();
+    }
+
+    /**
+     * Compares the catalog with the indexes found in the database.
+     *
+     * @return one line per index of the catalog, starting with {@code OK}, {@code MISSING},
+     * {@code INVALID} (e.g. left by a failed build) or {@code MISMATCH} (same name, other definition)
+     */
+    public List<String> verify() {
+        Map<String, Map<String, Object>> existing = new HashMap<>();
+        jdbcTemplate.queryForList("""
+                SELECT c.relname AS name, i.indisvalid AS valid, pg_get_indexdef(i.indexrelid) AS definition
+                FROM pg_index i
+                JOIN pg_class c ON c.oid = i.indexrelid
+                JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE n.nspname = current_schema()
+                """).forEach(row -> existing.put((String) row.get("name"), row));
+
+        List<String> report = new ArrayList<>();
+        for (IndexDefinition index : getIndexes()) {
+            Map<String, Object> row = existing.get(index.getName());
+            String status;
+            if (row == null) {
+                status = "MISSING";
+            } else if (!Boolean.TRUE.equals(row.get("valid"))) {
+                status = "INVALID";
+            } else if (!index.matches((String) row.get("definition"))) {
+                status = "MISMATCH";
+            } else {
+                status = "OK";
+            }
+            report.add(status + " " + index.getName() + " ON " + index.getTable() + " (" + index.getColumns() + ")"
+                    + (row == null || "OK".equals(status) ? "" : ", found: " + row.get("definition")));
+        }
+        return report;
+    }
+
+    private void analyze() {
+        importPipeline.runStatements("analyze", getIndexes().stream()
+                .map(IndexDefinition::getTable)
+                .distinct()
+                .map(table -> "ANALYZE " + table)
+                .collect(Collectors.toList()));
+    }
+
+    private static IndexDefinition btree(String name, String table, String columns) {
+        return new IndexDefinition(name, table, "btree", columns);
+    }
+
+    @Value
+    public static class IndexDefinition {
+
+        String name;
+
+        String table;
+
+        /**
+         * The index access method, {@code btree} or {@code gin}.
+         */
+        String method;
+
+        /**
+         * The key columns as written in {@code CREATE INDEX}, with their ordering.
+         */
+        String columns;
+
+        public String createSQL() {
+            return createSQL(table);
+        }
+
+        /**
+         * The same index over another table with the same columns, e.g. a scratch copy.
+         */
+        public String createSQL(String onTable) {
+            String sql = "CREATE INDEX IF NOT EXISTS " + name + " ON " + onTable + " USING " + method + " (" + columns + ")";
+            // GIN has no fillfactor, its pending list already absorbs the inserts
+            return "btree".equals(method) ? sql + " WITH (fillfactor = " + FILLFACTOR + ")" : sql;
+        }
+
+        /**
+         * Whether the definition returned by {@code pg_get_indexdef} has the same key columns,
+         * ignoring case since PostgreSQL prints the unquoted identifiers in lower case.
+         */
+        boolean matches(String definition) {
+            return definition != null
+                    && definition.toLowerCase(Locale.ROOT).contains("(" + columns.toLowerCase(Locale.ROOT) + ")");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the ingredients of many recipes with one query, instead of one query per recipe.
+ * <p>
+ * Every path building a full {@link RecipeRecord} goes through here, so the ingredients are always listed
+ * in the same order: case-insensitively, with the exact spelling as tie-breaker to keep it deterministic.
+ */
+@Component
+public class IngredientLoader {
+
+    private static final String[] NO_INGREDIENTS = new String[0];
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return the ingredients of each recipe, recipes without any are absent from the map
+     */
+    public Map<Long, String[]> load(Collection<Long> recipeIds) {
+        Map<Long, String[]> ingredients = new HashMap<>();
+        if (recipeIds.isEmpty()) {
+            return ingredients;
+        }
+        Long[] ids = recipeIds.toArray(new Long[0]);
+        Map<Long, List<String>> lists = new HashMap<>();
+        jdbcTemplate.query("""
+                        SELECT RecipeId, IngredientPart
+                        FROM recipe_ingredients
+                        WHERE RecipeId = ANY(?)
+                        ORDER BY RecipeId, LOWER(IngredientPart), IngredientPart
+                        """,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                rs -> {
+                    lists.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getString(2));
+                });
+        lists.forEach((id, list) -> ingredients.put(id, list.toArray(NO_INGREDIENTS)));
+        return ingredients;
+    }
+
+    /**
+     * The rows the import writes to {@code recipe_ingredients} for these parts, one per distinct part,
+     * kept as {@code recipes.IngredientCount}.
+     */
+    public static int distinctCount(String[] ingredientParts) {
+        return new HashSet<>(Arrays.asList(ingredientParts)).size();
+    }
+
+    public String[] load(long recipeId) {
+        return load(List.of(recipeId)).getOrDefault(recipeId, NO_INGREDIENTS);
+    }
+
+    /**
+     * Sets the ingredients of all the given recipes.
+     */
+    public void attach(Collection<RecipeRecord> recipes) {
+        List<Long> ids = new ArrayList<>(recipes.size());
+        for (RecipeRecord recipe : recipes) {
+            ids.add(recipe.getRecipeId());
+        }
+        Map<Long, String[]> ingredients = load(ids);
+        for (RecipeRecord recipe : recipes) {
+            recipe.setRecipeIngredientParts(ingredients.getOrDefault(recipe.getRecipeId(), NO_INGREDIENTS));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.sustc.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A sort order usable for keyset (seek) pagination, and the opaque cursors continuing it.
+ * <p>
+ * Instead of skipping {@code OFFSET} rows, the next page starts right after the sort key of the
+ * last row returned, so with an index matching {@link #orderBy()} every page is an index seek.
+ * The keys are compared as a row value, {@code (k1, k2) < (?, ?)}, which PostgreSQL turns into an
+ * index bound; the NULLs are placed like {@code ORDER BY} does (first when descending, last otherwise).
+ * The last key must be unique so that the order is total.
+ * <p>
+ * A cursor carries the name of the ordering and the text form of the last sort key, read from the
+ * columns added by {@link #selectKeys()} and cast back to the key types in the seek predicate,
+ * so the values round-trip exactly whatever their type.
+ */
+public final class Keyset {
+
+    private static final String KEY_COLUMN = "cursor_key_";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final char SEPARATOR = '\n';
+
+    private static final String NULL = "!";
+
+    private static final String VALUE = "=";
+
+    private final String name;
+
+    private final boolean descending;
+
+    private final List<Key> keys;
+
+    public Keyset(String name, boolean descending, Key... keys) {
+        this.name = name;
+        this.descending = descending;
+        this.keys = List.of(keys);
+    }
+
+    /**
+     * @param expression the key as written in the query
+     * @param type       the SQL type the key values are cast back to
+     * @param nullable   whether the key can be NULL, only the last key must not be
+     */
+    public record Key(String expression, String type, boolean nullable) {
+    }
+
+    public static Key key(String expression, String type) {
+        return new Key(expression, type, false);
+    }
+
+    public static Key nullableKey(String expression, String type) {
+        return new Key(expression, type, true);
+    }
+
+    public String orderBy() {
+        String direction = descending ? " DESC" : " ASC";
+        return "ORDER BY " + keys.stream().map(key -> key.expression() + direction).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * The sort keys as text, to be added to the select list so {@link #readKeys} can build the next cursor.
+     */
+    public String selectKeys() {
+        List<String> columns = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            columns.add("(" + keys.get(i).expression() + ")::text AS " + KEY_COLUMN + i);
+        }
+        return String.join(", ", columns);
+    }
+
+    public String[] readKeys(ResultSet rs) throws SQLException {
+        String[] values = new String[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getString(KEY_COLUMN + i);
+        }
+        return values;
+    }
+
+    /**
+     * Appends {@code AND <rows after the cursor>} to the where clause, nothing for the first page.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed or was issued for another ordering
+     */
+    public void appendSeek(String cursor, StringBuilder whereClause, List<Object> params) {
+        if (cursor == null || cursor.isEmpty()) {
+            return;
+        }
+        String[] values = decode(cursor);
+        whereClause.append(" AND ").append(after(0, values, params));
+    }
+
+    /**
+     * The cursor continuing after the row whose sort keys are given.
+     */
+    public String encode(String[] values) {
+        StringBuilder text = new StringBuilder(name);
+        for (String value : values) {
+            text.append(SEPARATOR).append(value == null ? NULL : VALUE + value);
+        }
+        return ENCODER.encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decode(String cursor) {
+        String[] parts;
+        try {
+            parts = new String(DECODER.decode(cursor), StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR), -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        if (parts.length != keys.size() + 1 || !name.equals(parts[0])) {
+            throw new IllegalArgumentException("Cursor does not belong to this query");
+        }
+        String[] values = new String[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            String part = parts[i + 1];
+            if (part.startsWith(VALUE)) {
+                values[i] = part.substring(VALUE.length());
+            } else if (!part.equals(NULL) || !keys.get(i).nullable()) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The rows after {@code values} considering the keys from {@code from} on, equal on the keys before.
+     */
+    private String after(int from, String[] values, List<Object> params) {
+        Key key = keys.get(from);
+        boolean last = from == keys.size() - 1;
+        if (values[from] == null) {
+            // NULLs sort first when descending: every non-NULL key comes after them
+            String sameKey = last ? "FALSE" : "(" + key.expression() + " IS NULL AND " + after(from + 1, values, params) + ")";
+            return descending ? "(" + key.expression() + " IS NOT NULL OR " + sameKey + ")" : sameKey;
+        }
+        int end = from;
+        while (end + 1 < keys.size() && values[end + 1] != null) {
+            end++;
+        }
+        List<Key> compared = keys.subList(from, end + 1);
+        StringBuilder sql = new StringBuilder("(");
+        sql.append(compared.stream().map(Key::expression).collect(Collectors.joining(", ", "(", ")")));
+        sql.append(descending ? " < " : " > ");
+        sql.append(compared.stream().map(k -> "CAST(? AS " + k.type() + ")").collect(Collectors.joining(", ", "(", ")")));
+        params.addAll(Arrays.asList(values).subList(from, end + 1));
+        if (end + 1 < keys.size()) {
+            // the next value is NULL: equal on the compared keys, continue with the remaining ones
+            sql.append(" OR (");
+            for (int i = from; i <= end; i++) {
+                sql.append(keys.get(i).expression()).append(" = CAST(? AS ").append(keys.get(i).type()).append(") AND ");
+                params.add(values[i]);
+            }
+            sql.append(after(end + 1, values, params)).append(")");
+        }
+        if (!descending) {
+            // NULLs sort last when ascending, after any value of the first compared key
+            for (int i = from; i <= end; i++) {
+                if (keys.get(i).nullable()) {
+                    sql.append(" OR (");
+                    for (int j = from; j < i; j++) {
+                        sql.append(keys.get(j).expression()).append(" = CAST(? AS ").append(keys.get(j).type()).append(") AND ");
+                        params.add(values[j]);
+                    }
+                    sql.append(keys.get(i).expression()).append(" IS NULL)");
+                }
+            }
+        }
+        return sql.append(")").toString();
+    }
+}
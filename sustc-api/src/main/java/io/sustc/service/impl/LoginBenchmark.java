@@ -0,0 +1,116 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the logins of {@link UserServiceImpl#login} with and without the credential cache of
+ * {@link Authenticator}.
+ * <p>
+ * Several threads log in random users out of a sample, each user many times, as clients calling the API
+ * repeatedly would. All the modes are warmed up first with a quarter of their logins, untimed, and the cache is
+ * emptied before the cached run, so its first timed login of every user is a miss. Nothing is written.
+ */
+@Component
+@Slf4j
+public class LoginBenchmark {
+
+    private static final String USERS_SQL = """
+            SELECT AuthorId, Password FROM users
+            WHERE IsDeleted = FALSE AND Password <> ''
+            ORDER BY AuthorId
+            LIMIT ?
+            """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private Authenticator authenticator;
+
+    private enum Mode {
+        UNCACHED, CACHED
+    }
+
+    private record Credentials(long authorId, String password) {
+    }
+
+    /**
+     * @param threads    threads logging in at once, each on its own connection
+     * @param users      users logged in, more of them means fewer logins per user
+     * @param operations logins per mode, over all the threads
+     */
+    public List<String> run(int threads, int users, int operations) {
+        if (threads <= 0 || users <= 0 || operations <= 0) {
+            throw new IllegalArgumentException("Threads, users and operations must be positive");
+        }
+        List<Credentials> credentials = jdbcTemplate.query(USERS_SQL,
+                (rs, rowNum) -> new Credentials(rs.getLong("AuthorId"), rs.getString("Password")), users);
+        if (credentials.isEmpty()) {
+            throw new IllegalArgumentException("No active users with a password");
+        }
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-10s %7s %7s %8s %8s %10s", "mode", "threads", "users", "logins", "failed", "logins/s"));
+        // the JIT, the connections and the plans are warm before any mode is timed
+        for (Mode mode : Mode.values()) {
+            runMode(mode, credentials, threads, Math.max(operations / 4, threads));
+        }
+        for (Mode mode : Mode.values()) {
+            if (mode == Mode.CACHED) {
+                authenticator.invalidateAll();
+            }
+            report.add(runMode(mode, credentials, threads, operations));
+        }
+        report.forEach(line -> log.info("{}", line));
+        return report;
+    }
+
+    private String runMode(Mode mode, List<Credentials> credentials, int threads, int operations) {
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int logins = operations / threads + (thread < operations % threads ? 1 : 0);
+                Random random = new Random(thread);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < logins; i++) {
+                        Credentials user = credentials.get(random.nextInt(credentials.size()));
+                        if (!login(mode, user)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Login benchmark interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%-10s %7d %7d %8d %8d %10.0f", mode.name().toLowerCase(), threads, credentials.size(),
+                operations, failed.get(), operations / seconds);
+    }
+
+    private boolean login(Mode mode, Credentials user) {
+        return switch (mode) {
+            case UNCACHED -> authenticator.verify(user.authorId(), user.password(), false);
+            case CACHED -> authenticator.verify(user.authorId(), user.password(), true);
+        };
+    }
+}
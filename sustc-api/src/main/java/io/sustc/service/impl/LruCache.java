@@ -0,0 +1,97 @@
+package io.sustc.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * A size-bounded map evicting its least recently used entry, counting its hits, misses and evictions.
+ * <p>
+ * Values are loaded by the caller and stored with {@link #put(Object, Object, long)} and the {@link #stamp()}
+ * read before loading them: a value loaded while an {@link #invalidate} was running is not stored,
+ * since it may have been read before the write it invalidates.
+ *
+ * @param <K> the key type
+ * @param <V> the value type, which the caller keeps immutable
+ */
+public final class LruCache<K, V> {
+
+    private final String name;
+
+    private final IntSupplier capacity;
+
+    private final Map<K, V> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity.getAsInt()) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private long stamp;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    /**
+     * @param capacity read on every insertion, so a configuration change applies to the next one
+     */
+    public LruCache(String name, IntSupplier capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached value, or {@code null} on a miss
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * The stamp to give to {@link #put} for a value loaded from now on.
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Stores a value loaded since {@code stamp} was read, unless an invalidation happened meanwhile.
+     */
+    public synchronized void put(K key, V value, long stamp) {
+        if (stamp == this.stamp && capacity.getAsInt() > 0) {
+            entries.put(key, value);
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        stamp++;
+        if (entries.remove(key) != null) {
+            invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        stamp++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(name, entries.size(), capacity.getAsInt(), hits, misses, evictions, invalidations);
+    }
+}
@@ -0,0 +1,12 @@
+package io.sustc.service.impl;
+
+import java.util.List;
+
+/**
+ * Implemented by the components holding in-process caches,
+ * so {@link DatabaseServiceImpl#cacheStats()} can report on all of them.
+ */
+public interface MeteredCache {
+
+    List<CacheStats> stats();
+}
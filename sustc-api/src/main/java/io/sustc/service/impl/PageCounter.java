@@ -0,0 +1,163 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the data query of a paginated listing together with the count of all its matching rows,
+ * following the {@link ServiceConfig.CountMode} configured in {@code sustc.pagination.count-mode}.
+ * <p>
+ * A listing is given as its select list, its {@code FROM ... WHERE ...} part and its order.
+ * The count is {@code SELECT COUNT(*)} over the same {@code FROM ... WHERE ...} part, so it has the same filters.
+ * <p>
+ * Cached counts are dropped by {@link #invalidate()}, which the services call after every write changing
+ * which rows a listing matches, and after an import or a drop. Writes made around the services are
+ * only seen once the entry is older than {@code sustc.pagination.count-cache-ttl}.
+ */
+@Component
+public class PageCounter implements DataLifecycleListener {
+
+    private static final String TOTAL_COLUMN = "page_counter_total";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ServiceConfig serviceConfig;
+
+    /**
+     * Bumped by every invalidation, a cached count is only valid for the generation it was counted in.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<CountKey, CachedCount> counts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CountKey, CachedCount> eldest) {
+            return size() > serviceConfig.getPagination().getCountCacheSize();
+        }
+    };
+
+    /**
+     * The rows of a page, and the number of rows on all the pages or -1 when it was not asked for.
+     */
+    public record Page<T>(List<T> items, long total) {
+    }
+
+    /**
+     * @param columns      the select list
+     * @param from         the {@code FROM ... WHERE ...} part, shared by the data and count queries
+     * @param filterParams the parameters of {@code from}
+     * @param orderBy      the {@code ORDER BY} clause
+     * @param limit        the rows to fetch
+     * @param offset       the rows to skip
+     * @param includeTotal whether to count the matching rows
+     */
+    public <T> Page<T> fetch(String columns, String from, List<Object> filterParams, String orderBy,
+                             int limit, int offset, RowMapper<T> mapper, boolean includeTotal) {
+        List<Object> params = new ArrayList<>(filterParams);
+        params.add(limit);
+        params.add(offset);
+        String limitClause = " " + orderBy + " LIMIT ? OFFSET ?";
+
+        if (!includeTotal) {
+            List<T> items = jdbcTemplate.query("SELECT " + columns + " FROM " + from + limitClause, mapper, params.toArray());
+            return new Page<>(items, -1);
+        }
+        ServiceConfig.CountMode mode = serviceConfig.getPagination().getCountMode();
+        if (mode == ServiceConfig.CountMode.WINDOW) {
+            // the window is computed over all the filtered rows, before LIMIT and OFFSET apply
+            long[] total = {-1};
+            List<T> items = jdbcTemplate.query(
+                    "SELECT " + columns + ", COUNT(*) OVER () AS " + TOTAL_COLUMN + " FROM " + from + limitClause,
+                    (rs, rowNum) -> {
+                        if (rowNum == 0) {
+                            total[0] = rs.getLong(TOTAL_COLUMN);
+                        }
+                        return mapper.mapRow(rs, rowNum);
+                    }, params.toArray());
+            if (total[0] < 0) {
+                // no row carries the total on a page past the end
+                total[0] = offset == 0 ? 0 : count(from, filterParams);
+            }
+            return new Page<>(items, total[0]);
+        }
+        List<T> items = jdbcTemplate.query("SELECT " + columns + " FROM " + from + limitClause, mapper, params.toArray());
+        return new Page<>(items, count(from, filterParams));
+    }
+
+    /**
+     * The number of rows matched by {@code from}, from the cache in {@link ServiceConfig.CountMode#CACHED} mode.
+     */
+    public long count(String from, List<Object> filterParams) {
+        ServiceConfig.Pagination config = serviceConfig.getPagination();
+        if (config.getCountMode() != ServiceConfig.CountMode.CACHED) {
+            return countRows(from, filterParams);
+        }
+        CountKey key = new CountKey(from, List.copyOf(filterParams));
+        long currentGeneration = generation.get();
+        long now = System.nanoTime();
+        synchronized (counts) {
+            CachedCount cached = counts.get(key);
+            if (cached != null && cached.generation == currentGeneration
+                    && now - cached.countedAt < config.getCountCacheTtl().toNanos()) {
+                return cached.total;
+            }
+        }
+        long total = countRows(from, filterParams);
+        synchronized (counts) {
+            // a write during the count makes it stale at once, rather than served from the cache
+            counts.put(key, new CachedCount(total, currentGeneration, now));
+        }
+        return total;
+    }
+
+    /**
+     * Drops all the cached counts. Called within a transaction, it drops them again once the transaction
+     * completes, so a count made before the commit cannot be cached for the committed data.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    generation.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void afterImport() {
+        invalidate();
+        synchronized (counts) {
+            counts.clear();
+        }
+    }
+
+    @Override
+    public void afterDrop() {
+        afterImport();
+    }
+
+    private long countRows(String from, List<Object> filterParams) {
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + from, Long.class, filterParams.toArray());
+        return total == null ? 0 : total;
+    }
+
+    private record CountKey(String from, List<Object> params) {
+    }
+
+    private record CachedCount(long total, long generation, long countedAt) {
+    }
+}
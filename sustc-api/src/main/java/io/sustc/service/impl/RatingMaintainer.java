@@ -0,0 +1,148 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.ReviewRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps {@code AggregatedRating} and {@code ReviewCount} of the recipes up to date as reviews change.
+ * <p>
+ * Every recipe row carries the running {@code RatingSum} and {@code RatingCount} of its reviews, seeded by
+ * the import from the loaded reviews. Adding, editing or deleting a review applies its delta to them and
+ * derives the rating in the same {@code UPDATE}, instead of aggregating all the reviews of the recipe again.
+ * <p>
+ * The rating is rounded like the full recompute of {@link ReviewServiceImpl#refreshRecipeAggregatedRating}
+ * does in Java: the exact {@code numeric} average, as the {@code AVG} of the ratings, converted to a double,
+ * times 100, rounded half up. That method stays the repair path, recomputing the totals from the reviews.
+ */
+@Component
+@Slf4j
+public class RatingMaintainer {
+
+    private static final String APPLY_DELTA_SQL = """
+            UPDATE recipes
+            SET RatingSum = RatingSum + ?,
+                RatingCount = RatingCount + ?,
+                ReviewCount = RatingCount + ?,
+                AggregatedRating = CASE WHEN RatingCount + ? > 0
+                    THEN floor(((RatingSum + ?)::numeric / (RatingCount + ?))::float8 * 100 + 0.5) / 100
+                    ELSE 0 END
+            WHERE RecipeId = ?
+            """;
+
+    private static final String REPAIR_ALL_SQL = """
+            UPDATE recipes r
+            SET RatingSum = t.rating_sum,
+                RatingCount = t.rating_count,
+                ReviewCount = t.rating_count,
+                AggregatedRating = CASE WHEN t.rating_count > 0
+                    THEN floor((t.rating_sum::numeric / t.rating_count)::float8 * 100 + 0.5) / 100
+                    ELSE 0 END
+            FROM (SELECT rc.RecipeId, COALESCE(SUM(rv.Rating), 0) AS rating_sum, COUNT(rv.Rating) AS rating_count
+                  FROM recipes rc LEFT JOIN reviews rv ON rv.RecipeId = rc.RecipeId
+                  GROUP BY rc.RecipeId) t
+            WHERE r.RecipeId = t.RecipeId
+              AND (r.RatingSum, r.RatingCount) IS DISTINCT FROM (t.rating_sum, t.rating_count)
+            """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PageCounter pageCounter;
+
+    @Autowired
+    private RecipeCache recipeCache;
+
+    public void reviewAdded(long recipeId, int rating) {
+        apply(recipeId, rating, 1);
+    }
+
+    /**
+     * Applies the reviews added together, one delta per recipe, in one batch.
+     *
+     * @param added the sum and the count of the ratings added, by recipe
+     */
+    public void reviewsAdded(Map<Long, long[]> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        // in RecipeId order, so concurrent batches lock the recipe rows in the same order
+        List<Object[]> args = new ArrayList<>(added.size());
+        new TreeMap<>(added).forEach((recipeId, total) -> {
+            long sumDelta = total[0];
+            int countDelta = (int) total[1];
+            args.add(new Object[]{sumDelta, countDelta, countDelta, countDelta, sumDelta, countDelta, recipeId});
+        });
+        jdbcTemplate.batchUpdate(APPLY_DELTA_SQL, args);
+        pageCounter.invalidate();
+        for (long recipeId : added.keySet()) {
+            recipeCache.invalidate(recipeId);
+        }
+    }
+
+    public void reviewEdited(long recipeId, int oldRating, int newRating) {
+        apply(recipeId, newRating - oldRating, 0);
+    }
+
+    public void reviewDeleted(long recipeId, int rating) {
+        apply(recipeId, -rating, -1);
+    }
+
+    /**
+     * Recomputes the totals and rating of every recipe whose totals don't match its reviews.
+     *
+     * @return the number of recipes repaired
+     */
+    public int repairAll() {
+        int repaired = jdbcTemplate.update(REPAIR_ALL_SQL);
+        log.info("Repaired the rating of {} recipes", repaired);
+        pageCounter.invalidate();
+        recipeCache.invalidateAll();
+        return repaired;
+    }
+
+    private void apply(long recipeId, long sumDelta, int countDelta) {
+        jdbcTemplate.update(APPLY_DELTA_SQL, sumDelta, countDelta, countDelta, countDelta, sumDelta, countDelta, recipeId);
+        // the review count and the rating filter of the search changed
+        pageCounter.invalidate();
+        recipeCache.invalidate(recipeId);
+    }
+
+    /**
+     * The rating totals of the reviews to import, per recipe, written with the recipe rows.
+     */
+    public static final class RatingTotals {
+
+        private final Map<Long, long[]> totals = new HashMap<>();
+
+        public static RatingTotals of(List<ReviewRecord> reviewRecords) {
+            RatingTotals ratingTotals = new RatingTotals();
+            for (ReviewRecord review : reviewRecords) {
+                long[] total = ratingTotals.totals.computeIfAbsent(review.getRecipeId(), id -> new long[2]);
+                // the rating stored in the INTEGER column, rounded half to even by the server
+                total[0] += (long) Math.rint(review.getRating());
+                total[1]++;
+            }
+            return ratingTotals;
+        }
+
+        public long sum(long recipeId) {
+            long[] total = totals.get(recipeId);
+            return total == null ? 0 : total[0];
+        }
+
+        public int count(long recipeId) {
+            long[] total = totals.get(recipeId);
+            return total == null ? 0 : (int) total[1];
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps the most recently read recipes and recipe names in memory, in front of
+ * {@link RecipeServiceImpl#getRecipeById} and {@link RecipeServiceImpl#getNameFromID}, and their batch variants.
+ * <p>
+ * Every write to a recipe row, its ingredients or its rating calls {@link #invalidate}, and the next read
+ * loads it again. Callers get their own copy of a cached recipe, so changing it does not change the cache.
+ * Recipes which do not exist are not cached.
+ */
+@Component
+public class RecipeCache implements DataLifecycleListener, MeteredCache {
+
+    private final LruCache<Long, RecipeRecord> recipes;
+
+    private final LruCache<Long, String> names;
+
+    @Autowired
+    public RecipeCache(ServiceConfig serviceConfig) {
+        this.recipes = new LruCache<>("recipes", () -> capacity(serviceConfig));
+        this.names = new LruCache<>("recipe names", () -> capacity(serviceConfig));
+    }
+
+    private static int capacity(ServiceConfig serviceConfig) {
+        ServiceConfig.RecipeCache config = serviceConfig.getRecipeCache();
+        return config.isEnabled() ? config.getCapacity() : 0;
+    }
+
+    /**
+     * @param loader reads the recipe from the database, returning {@code null} if it does not exist
+     */
+    public RecipeRecord getRecipe(long recipeId, LongFunction<RecipeRecord> loader) {
+        RecipeRecord cached = recipes.get(recipeId);
+        if (cached != null) {
+            return copy(cached);
+        }
+        long stamp = recipes.stamp();
+        RecipeRecord loaded = loader.apply(recipeId);
+        if (loaded != null) {
+            recipes.put(recipeId, copy(loaded), stamp);
+        }
+        return loaded;
+    }
+
+    /**
+     * @param loader reads the name from the database, returning {@code null} if the recipe does not exist
+     */
+    public String getName(long recipeId, LongFunction<String> loader) {
+        String cached = names.get(recipeId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = names.stamp();
+        String loaded = loader.apply(recipeId);
+        if (loaded != null) {
+            names.put(recipeId, loaded, stamp);
+        }
+        return loaded;
+    }
+
+    /**
+     * The recipes in the order of the IDs, {@code null} for those which do not exist, each a copy of its own.
+     *
+     * @param loader reads the recipes missing from the cache at once, leaving out those which do not exist
+     */
+    public List<RecipeRecord> getRecipes(long[] recipeIds, Function<Collection<Long>, Map<Long, RecipeRecord>> loader) {
+        return getAll(recipes, recipeIds, loader, RecipeCache::copy);
+    }
+
+    /**
+     * The names in the order of the IDs, {@code null} for the recipes which do not exist.
+     *
+     * @param loader reads the names missing from the cache at once, leaving out the recipes which do not exist
+     */
+    public List<String> getNames(long[] recipeIds, Function<Collection<Long>, Map<Long, String>> loader) {
+        return getAll(names, recipeIds, loader, UnaryOperator.identity());
+    }
+
+    private static <V> List<V> getAll(LruCache<Long, V> cache, long[] recipeIds,
+                                      Function<Collection<Long>, Map<Long, V>> loader, UnaryOperator<V> copy) {
+        Map<Long, V> found = new HashMap<>();
+        Set<Long> missing = new LinkedHashSet<>();
+        for (long recipeId : recipeIds) {
+            if (found.containsKey(recipeId) || missing.contains(recipeId)) {
+                continue;
+            }
+            V cached = cache.get(recipeId);
+            if (cached != null) {
+                found.put(recipeId, cached);
+            } else {
+                missing.add(recipeId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = cache.stamp();
+            loader.apply(missing).forEach((recipeId, loaded) -> {
+                cache.put(recipeId, copy.apply(loaded), stamp);
+                found.put(recipeId, loaded);
+            });
+        }
+        List<V> result = new ArrayList<>(recipeIds.length);
+        for (long recipeId : recipeIds) {
+            V value = found.get(recipeId);
+            result.add(value == null ? null : copy.apply(value));
+        }
+        return result;
+    }
+
+    /**
+     * Drops the recipe from the cache. Called within a transaction, it drops it again once the transaction
+     * completes, so a read made before the commit cannot be cached for the committed data.
+     */
+    public void invalidate(long recipeId) {
+        recipes.invalidate(recipeId);
+        names.invalidate(recipeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    recipes.invalidate(recipeId);
+                    names.invalidate(recipeId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops every recipe from the cache, after a write to many recipes at once.
+     */
+    public void invalidateAll() {
+        recipes.clear();
+        names.clear();
+    }
+
+    @Override
+    public void afterImport() {
+        invalidateAll();
+    }
+
+    @Override
+    public void afterDrop() {
+        afterImport();
+    }
+
+    @Override
+    public List<CacheStats> stats() {
+        return List.of(recipes.stats(), names.stats());
+    }
+
+    private static RecipeRecord copy(RecipeRecord recipe) {
+        return RecipeRecord.builder()
+                .RecipeId(recipe.getRecipeId())
+                .name(recipe.getName())
+                .authorId(recipe.getAuthorId())
+                .authorName(recipe.getAuthorName())
+                .cookTime(recipe.getCookTime())
+                .prepTime(recipe.getPrepTime())
+                .totalTime(recipe.getTotalTime())
+                .datePublished(recipe.getDatePublished() == null ? null : (Timestamp) recipe.getDatePublished().clone())
+                .description(recipe.getDescription())
+                .recipeCategory(recipe.getRecipeCategory())
+                .recipeIngredientParts(recipe.getRecipeIngredientParts() == null ? null : recipe.getRecipeIngredientParts().clone())
+                .aggregatedRating(recipe.getAggregatedRating())
+                .reviewCount(recipe.getReviewCount())
+                .calories(recipe.getCalories())
+                .fatContent(recipe.getFatContent())
+                .saturatedFatContent(recipe.getSaturatedFatContent())
+                .cholesterolContent(recipe.getCholesterolContent())
+                .sodiumContent(recipe.getSodiumContent())
+                .carbohydrateContent(recipe.getCarbohydrateContent())
+                .fiberContent(recipe.getFiberContent())
+                .sugarContent(recipe.getSugarContent())
+                .proteinContent(recipe.getProteinContent())
+                .recipeServings(recipe.getRecipeServings())
+                .recipeYield(recipe.getRecipeYield())
+                .build();
+    }
+}
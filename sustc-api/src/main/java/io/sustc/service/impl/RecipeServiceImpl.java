@@ -15,6 +15,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import javax.sql.DataSource;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.time.Duration;
 import java.time.format.DateTimeParseException;
@@ -25,16 +26,35 @@ import java.util.stream.Collectors;
 @Slf4j
 public class RecipeServiceImpl implements RecipeService {
     private JdbcTemplate jdbcTemplate;
+    private IdAllocator idAllocator;
+    private IngredientLoader ingredientLoader;
+    private PageCounter pageCounter;
+    private RecipeCache recipeCache;
+    private FeedTimeline feedTimeline;
+    private CaloriePairTracker caloriePairTracker;
+    private ActiveUsers activeUsers;
     @Autowired
-    public RecipeServiceImpl(JdbcTemplate jdbcTemplate) {
+    public RecipeServiceImpl(JdbcTemplate jdbcTemplate, IdAllocator idAllocator, IngredientLoader ingredientLoader,
+                             PageCounter pageCounter, RecipeCache recipeCache, FeedTimeline feedTimeline,
+                             CaloriePairTracker caloriePairTracker, ActiveUsers activeUsers) {
         this.jdbcTemplate = jdbcTemplate;
+        this.idAllocator = idAllocator;
+        this.ingredientLoader = ingredientLoader;
+        this.pageCounter = pageCounter;
+        this.recipeCache = recipeCache;
+        this.feedTimeline = feedTimeline;
+        this.caloriePairTracker = caloriePairTracker;
+        this.activeUsers = activeUsers;
     }
     @Override
     public String getNameFromID(long id) {
         if (id <= 0) {
             throw new IllegalArgumentException("Recipe ID must be positive");
         }
-        String sql="SELECT Name FROM recipes WHERE RecipeId=?";
+        return recipeCache.getName(id, this::loadName);
+    }
+
+    private String loadName(long id) {
         try{
             return jdbcTemplate.queryForObject(
                     "SELECT name FROM recipes WHERE recipeid = ?",
@@ -45,68 +65,115 @@ public class RecipeServiceImpl implements RecipeService {
             return null;
         }
     }
+
+    @Override
+    public List<String> getNamesFromIDs(long[] ids) {
+        checkRecipeIds(ids);
+        return recipeCache.getNames(ids, this::loadNames);
+    }
+
+    private Map<Long, String> loadNames(Collection<Long> ids) {
+        Long[] idArray = ids.toArray(new Long[0]);
+        Map<Long, String> names = new HashMap<>();
+        jdbcTemplate.query("SELECT RecipeId, Name FROM recipes WHERE RecipeId = ANY(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", idArray)),
+                rs -> {
+                    names.put(rs.getLong(1), rs.getString(2));
+                });
+        return names;
+    }
+
     @Override
     public RecipeRecord getRecipeById(long recipeId) {
         if (recipeId <= 0) {
             throw new IllegalArgumentException("recipeId must be positive");
         }
-        String recipeSql = "SELECT " +
-                "r.RecipeId, r.Name, r.AuthorId, u.AuthorName, " +
-                "r.CookTime, r.PrepTime, r.TotalTime, r.DatePublished, " +
-                "r.Description, r.RecipeCategory, " +
-                "r.AggregatedRating, r.ReviewCount, r.Calories, " +
-                "r.FatContent, r.SaturatedFatContent, r.CholesterolContent, " +
-                "r.SodiumContent, r.CarbohydrateContent, r.FiberContent, " +
-                "r.SugarContent, r.ProteinContent, r.RecipeServings, r.RecipeYield " +
-                "FROM recipes r " +
-                "LEFT JOIN users u ON r.AuthorId = u.AuthorId " +
-                "WHERE r.RecipeId = ?";
+        return recipeCache.getRecipe(recipeId, this::loadRecipe);
+    }
 
+    private static final String RECIPE_SQL = "SELECT " +
+            "r.RecipeId, r.Name, r.AuthorId, u.AuthorName, " +
+            "r.CookTime, r.PrepTime, r.TotalTime, r.DatePublished, " +
+            "r.Description, r.RecipeCategory, " +
+            "r.AggregatedRating, r.ReviewCount, r.Calories, " +
+            "r.FatContent, r.SaturatedFatContent, r.CholesterolContent, " +
+            "r.SodiumContent, r.CarbohydrateContent, r.FiberContent, " +
+            "r.SugarContent, r.ProteinContent, r.RecipeServings, r.RecipeYield " +
+            "FROM recipes r " +
+            "LEFT JOIN users u ON r.AuthorId = u.AuthorId ";
+
+    private RecipeRecord loadRecipe(long recipeId) {
         try {
-            RecipeRecord recipe = jdbcTemplate.queryForObject(recipeSql, (rs, rowNum) ->
-                            RecipeRecord.builder()
-                                    .RecipeId(rs.getLong("RecipeId"))
-                                    .name(rs.getString("Name"))
-                                    .authorId(rs.getLong("AuthorId"))
-                                    .authorName(rs.getString("AuthorName"))
-                                    .cookTime(rs.getString("CookTime"))
-                                    .prepTime(rs.getString("PrepTime"))
-                                    .totalTime(rs.getString("TotalTime"))
-                                    .datePublished(rs.getTimestamp("DatePublished"))
-                                    .description(rs.getString("Description"))
-                                    .recipeCategory(rs.getString("RecipeCategory"))
-                                    .aggregatedRating(rs.getFloat("AggregatedRating"))
-                                    .reviewCount(rs.getInt("ReviewCount"))
-                                    .calories(rs.getFloat("Calories"))
-                                    .fatContent(rs.getFloat("FatContent"))
-                                    .saturatedFatContent(rs.getFloat("SaturatedFatContent"))
-                                    .cholesterolContent(rs.getFloat("CholesterolContent"))
-                                    .sodiumContent(rs.getFloat("SodiumContent"))
-                                    .carbohydrateContent(rs.getFloat("CarbohydrateContent"))
-                                    .fiberContent(rs.getFloat("FiberContent"))
-                                    .sugarContent(rs.getFloat("SugarContent"))
-                                    .proteinContent(rs.getFloat("ProteinContent"))
-                                    .recipeServings(parseRecipeServings(rs.getString("RecipeServings")))
-                                    .recipeYield(rs.getString("RecipeYield"))
-                                    .build(),
-                    recipeId
-            );
-            String ingredientsSql = "SELECT IngredientPart " +
-                    "FROM recipe_ingredients " +
-                    "WHERE RecipeId = ? " +
-                    "ORDER BY IngredientPart";
-            List<String> ingredients = jdbcTemplate.queryForList(
-                    ingredientsSql,
-                    new Object[]{recipeId},
-                    String.class
-            );
-            recipe.setRecipeIngredientParts(ingredients.toArray(new String[0]));
+            RecipeRecord recipe = jdbcTemplate.queryForObject(RECIPE_SQL + "WHERE r.RecipeId = ?",
+                    (rs, rowNum) -> mapRecipe(rs), recipeId);
+            recipe.setRecipeIngredientParts(ingredientLoader.load(recipeId));
             return recipe;
 
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
+
+    @Override
+    public List<RecipeRecord> getRecipesByIds(long[] recipeIds) {
+        checkRecipeIds(recipeIds);
+        return recipeCache.getRecipes(recipeIds, this::loadRecipes);
+    }
+
+    /**
+     * The recipes and, in a second query, their ingredients, however many they are.
+     */
+    private Map<Long, RecipeRecord> loadRecipes(Collection<Long> recipeIds) {
+        Long[] ids = recipeIds.toArray(new Long[0]);
+        List<RecipeRecord> recipes = jdbcTemplate.query(RECIPE_SQL + "WHERE r.RecipeId = ANY(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                (rs, rowNum) -> mapRecipe(rs));
+        ingredientLoader.attach(recipes);
+        Map<Long, RecipeRecord> byId = new HashMap<>();
+        for (RecipeRecord recipe : recipes) {
+            byId.put(recipe.getRecipeId(), recipe);
+        }
+        return byId;
+    }
+
+    private static void checkRecipeIds(long[] recipeIds) {
+        if (recipeIds == null) {
+            throw new IllegalArgumentException("Recipe IDs must not be null");
+        }
+        for (long recipeId : recipeIds) {
+            if (recipeId <= 0) {
+                throw new IllegalArgumentException("Recipe ID must be positive");
+            }
+        }
+    }
+
+    private RecipeRecord mapRecipe(ResultSet rs) throws SQLException {
+        return RecipeRecord.builder()
+                .RecipeId(rs.getLong("RecipeId"))
+                .name(rs.getString("Name"))
+                .authorId(rs.getLong("AuthorId"))
+                .authorName(rs.getString("AuthorName"))
+                .cookTime(rs.getString("CookTime"))
+                .prepTime(rs.getString("PrepTime"))
+                .totalTime(rs.getString("TotalTime"))
+                .datePublished(rs.getTimestamp("DatePublished"))
+                .description(rs.getString("Description"))
+                .recipeCategory(rs.getString("RecipeCategory"))
+                .aggregatedRating(rs.getFloat("AggregatedRating"))
+                .reviewCount(rs.getInt("ReviewCount"))
+                .calories(rs.getFloat("Calories"))
+                .fatContent(rs.getFloat("FatContent"))
+                .saturatedFatContent(rs.getFloat("SaturatedFatContent"))
+                .cholesterolContent(rs.getFloat("CholesterolContent"))
+                .sodiumContent(rs.getFloat("SodiumContent"))
+                .carbohydrateContent(rs.getFloat("CarbohydrateContent"))
+                .fiberContent(rs.getFloat("FiberContent"))
+                .sugarContent(rs.getFloat("SugarContent"))
+                .proteinContent(rs.getFloat("ProteinContent"))
+                .recipeServings(parseRecipeServings(rs.getString("RecipeServings")))
+                .recipeYield(rs.getString("RecipeYield"))
+                .build();
+    }
     private int parseRecipeServings(String recipeServings) {
         if (recipeServings == null || recipeServings.trim().isEmpty()) {
             return 0;
@@ -121,6 +188,12 @@ public class RecipeServiceImpl implements RecipeService {
     @Override
     public PageResult<RecipeRecord> searchRecipes(String keyword, String category, Double minRating,
                                                   Integer page, Integer size, String sort) {
+        return searchRecipes(keyword, category, minRating, page, size, sort, true);
+    }
+
+    @Override
+    public PageResult<RecipeRecord> searchRecipes(String keyword, String category, Double minRating,
+                                                  Integer page, Integer size, String sort, boolean includeTotal) {
         if (page == null || page < 1) {
             throw new IllegalArgumentException("Page number must be at least 1");
         }
@@ -129,10 +202,93 @@ public class RecipeServiceImpl implements RecipeService {
         }
 
         List<Object> params = new ArrayList<>();
+        StringBuilder whereClause = searchFilters(keyword, category, minRating, params);
+        String orderBy = searchOrdering(sort).orderBy();
+        int offset = (page - 1) * size;
+        PageCounter.Page<RecipeRecord> result = pageCounter.fetch(SEARCH_COLUMNS, SEARCH_FROM + whereClause, params,
+                orderBy, size, offset, (rs, rowNum) -> mapSearchRow(rs), includeTotal);
+        List<RecipeRecord> records = result.items();
+        // one query for the ingredients of the whole page
+        ingredientLoader.attach(records);
+
+        return PageResult.<RecipeRecord>builder()
+                .total(result.total())
+                .page(page)
+                .size(size)
+                .items(records)
+                .build();
+    }
+
+    @Override
+    public PageResult<RecipeRecord> searchRecipesByCursor(String keyword, String category, Double minRating,
+                                                          String cursor, Integer size, String sort) {
+        if (size == null || size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        List<Object> params = new ArrayList<>();
+        StringBuilder whereClause = searchFilters(keyword, category, minRating, params);
+        Keyset keyset = searchOrdering(sort);
+        boolean firstPage = cursor == null || cursor.isEmpty();
+        keyset.appendSeek(cursor, whereClause, params);
+
+        List<String[]> keys = new ArrayList<>();
+        // one more row than asked tells whether there is a next page
+        PageCounter.Page<RecipeRecord> result = pageCounter.fetch(SEARCH_COLUMNS + ", " + keyset.selectKeys(),
+                SEARCH_FROM + whereClause, params, keyset.orderBy(), size + 1, 0, (rs, rowNum) -> {
+                    keys.add(keyset.readKeys(rs));
+                    return mapSearchRow(rs);
+                }, firstPage);
+        List<RecipeRecord> records = result.items();
+        String nextCursor = null;
+        if (records.size() > size) {
+            records.remove(records.size() - 1);
+            nextCursor = keyset.encode(keys.get(size - 1));
+        }
+        ingredientLoader.attach(records);
+
+        return PageResult.<RecipeRecord>builder()
+                .total(result.total())
+                .size(size)
+                .items(records)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    private static final String SEARCH_FROM = "recipes r LEFT JOIN users u ON r.authorid = u.authorid ";
+
+    private static final String SEARCH_COLUMNS =
+            "r.recipeid, r.name, r.authorid, u.authorname, " +
+            "r.cooktime, r.preptime, r.totaltime, r.datepublished, " +
+            "r.description, r.recipecategory, " +
+            "r.aggregatedrating, r.reviewcount, r.calories, " +
+            "r.fatcontent, r.saturatedfatcontent, r.cholesterolcontent, " +
+            "r.sodiumcontent, r.carbohydratecontent, r.fibercontent, " +
+            "r.sugarcontent, r.proteincontent, r.recipeservings, r.recipeyield";
+
+    /**
+     * The sort orders of the search, each backed by an index of {@link IndexCatalog}.
+     */
+    private static final Map<String, Keyset> SEARCH_ORDERINGS = Map.of(
+            "rating_desc", new Keyset("rating_desc", true,
+                    Keyset.nullableKey("r.aggregatedrating", "numeric"), Keyset.key("r.recipeid", "bigint")),
+            "date_desc", new Keyset("date_desc", true,
+                    Keyset.nullableKey("r.datepublished", "timestamp"), Keyset.key("r.recipeid", "bigint")),
+            "calories_asc", new Keyset("calories_asc", false,
+                    Keyset.nullableKey("r.calories", "numeric"), Keyset.key("r.recipeid", "bigint"))
+    );
+
+    private static Keyset searchOrdering(String sort) {
+        // unknown sort options fall back to the rating order
+        return SEARCH_ORDERINGS.getOrDefault(sort == null ? "rating_desc" : sort, SEARCH_ORDERINGS.get("rating_desc"));
+    }
+
+    private static StringBuilder searchFilters(String keyword, String category, Double minRating, List<Object> params) {
         StringBuilder whereClause = new StringBuilder("WHERE 1=1");
 
         if (keyword != null && !keyword.trim().isEmpty()) {
             String likePattern = "%" + keyword.trim().toLowerCase() + "%";
+            // substring match, served by the trigram indexes of IndexCatalog with the TRIGRAM search backend
             whereClause.append(" AND (LOWER(r.name) LIKE ? OR LOWER(r.description) LIKE ?)");
             params.add(likePattern);
             params.add(likePattern);
@@ -145,79 +301,36 @@ public class RecipeServiceImpl implements RecipeService {
             whereClause.append(" AND r.aggregatedrating >= ?");
             params.add(minRating);
         }
-        String orderBy = "ORDER BY r.aggregatedrating DESC, r.recipeid DESC";
-        if (sort != null) {
-            switch (sort) {
-                case "rating_desc":
-                    orderBy = "ORDER BY r.aggregatedrating DESC, r.recipeid DESC";
-                    break;
-                case "date_desc":
-                    orderBy = "ORDER BY r.datepublished DESC, r.recipeid DESC";
-                    break;
-                case "calories_asc":
-                    orderBy = "ORDER BY r.calories ASC, r.recipeid ASC";
-                    break;
-            }
-        }
-        String countSql = "SELECT COUNT(*) FROM recipes r " + whereClause;
-        long total = jdbcTemplate.queryForObject(countSql, Long.class, params.toArray());
-        int offset = (page - 1) * size;
-        String dataSql = "SELECT " +
-                "r.recipeid, r.name, r.authorid, u.authorname, " +
-                "r.cooktime, r.preptime, r.totaltime, r.datepublished, " +
-                "r.description, r.recipecategory, " +
-                "r.aggregatedrating, r.reviewcount, r.calories, " +
-                "r.fatcontent, r.saturatedfatcontent, r.cholesterolcontent, " +
-                "r.sodiumcontent, r.carbohydratecontent, r.fibercontent, " +
-                "r.sugarcontent, r.proteincontent, r.recipeservings, r.recipeyield " +
-                "FROM recipes r " +
-                "LEFT JOIN users u ON r.authorid = u.authorid " +
-                whereClause + " " + orderBy + " LIMIT ? OFFSET ?";
-
-        params.add(size);
-        params.add(offset);
-
-        List<RecipeRecord> records = jdbcTemplate.query(dataSql, params.toArray(), (rs, rowNum) ->
-                RecipeRecord.builder()
-                        .RecipeId(rs.getLong("recipeid"))
-                        .name(rs.getString("name"))
-                        .authorId(rs.getLong("authorid"))
-                        .authorName(rs.getString("authorname"))
-                        .cookTime(rs.getString("cooktime"))
-                        .prepTime(rs.getString("preptime"))
-                        .totalTime(rs.getString("totaltime"))
-                        .datePublished(rs.getTimestamp("datepublished"))
-                        .description(rs.getString("description"))
-                        .recipeCategory(rs.getString("recipecategory"))
-                        .aggregatedRating(rs.getFloat("aggregatedrating"))
-                        .reviewCount(rs.getInt("reviewcount"))
-                        .calories(rs.getFloat("calories"))
-                        .fatContent(rs.getFloat("fatcontent"))
-                        .saturatedFatContent(rs.getFloat("saturatedfatcontent"))
-                        .cholesterolContent(rs.getFloat("cholesterolcontent"))
-                        .sodiumContent(rs.getFloat("sodiumcontent"))
-                        .carbohydrateContent(rs.getFloat("carbohydratecontent"))
-                        .fiberContent(rs.getFloat("fibercontent"))
-                        .sugarContent(rs.getFloat("sugarcontent"))
-                        .proteinContent(rs.getFloat("proteincontent"))
-                        .recipeServings(parseRecipeServings(rs.getString("recipeservings")))
-                        .recipeYield(rs.getString("recipeyield"))
-                        .recipeIngredientParts(getIngredientsByRecipeId(rs.getLong("recipeid")))
-                        .build()
-        );
+        return whereClause;
+    }
 
-        return PageResult.<RecipeRecord>builder()
-                .total(total)
-                .page(page)
-                .size(size)
-                .items(records)
+    private RecipeRecord mapSearchRow(ResultSet rs) throws SQLException {
+        return RecipeRecord.builder()
+                .RecipeId(rs.getLong("recipeid"))
+                .name(rs.getString("name"))
+                .authorId(rs.getLong("authorid"))
+                .authorName(rs.getString("authorname"))
+                .cookTime(rs.getString("cooktime"))
+                .prepTime(rs.getString("preptime"))
+                .totalTime(rs.getString("totaltime"))
+                .datePublished(rs.getTimestamp("datepublished"))
+                .description(rs.getString("description"))
+                .recipeCategory(rs.getString("recipecategory"))
+                .aggregatedRating(rs.getFloat("aggregatedrating"))
+                .reviewCount(rs.getInt("reviewcount"))
+                .calories(rs.getFloat("calories"))
+                .fatContent(rs.getFloat("fatcontent"))
+                .saturatedFatContent(rs.getFloat("saturatedfatcontent"))
+                .cholesterolContent(rs.getFloat("cholesterolcontent"))
+                .sodiumContent(rs.getFloat("sodiumcontent"))
+                .carbohydrateContent(rs.getFloat("carbohydratecontent"))
+                .fiberContent(rs.getFloat("fibercontent"))
+                .sugarContent(rs.getFloat("sugarcontent"))
+                .proteinContent(rs.getFloat("proteincontent"))
+                .recipeServings(parseRecipeServings(rs.getString("recipeservings")))
+                .recipeYield(rs.getString("recipeyield"))
                 .build();
     }
-    private String[] getIngredientsByRecipeId(long recipeId) {
-        String sql = "SELECT ingredientpart FROM recipe_ingredients WHERE recipeid = ? ORDER BY LOWER(ingredientpart)";
-        List<String> ingredients = jdbcTemplate.queryForList(sql, String.class, recipeId);
-        return ingredients.toArray(new String[0]);
-    }
 
     @Override
     public long createRecipe(RecipeRecord dto, AuthInfo auth) {
@@ -227,27 +340,25 @@ public class RecipeServiceImpl implements RecipeService {
         if (dto.getName() == null || dto.getName().trim().isEmpty()) {
             throw new IllegalArgumentException("Name cannot be empty");
         }
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false";
-        try {
-            Long existingUserId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId());
-            if (existingUserId == null) {
-                throw new SecurityException("User does not exist or is deleted");
-            }
-        } catch (EmptyResultDataAccessException e) {
+        if (!activeUsers.isActive(auth.getAuthorId())) {
             throw new SecurityException("User does not exist or is deleted");
         }
-        Long currentMaxId = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(MAX(recipeid), 0) FROM recipes",
-                Long.class
-        );
-        long newRecipeId = currentMaxId + 1;
+        Set<String> uniqueIngredients = new HashSet<>();
+        if (dto.getRecipeIngredientParts() != null) {
+            for (String ingredient : dto.getRecipeIngredientParts()) {
+                if (ingredient != null && !ingredient.trim().isEmpty()) {
+                    uniqueIngredients.add(ingredient);
+                }
+            }
+        }
+        long newRecipeId = idAllocator.next(IdAllocator.IdSequence.RECIPE);
         String insertSql = "INSERT INTO recipes (" +
                 "recipeid, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
                 "Description, RecipeCategory, AggregatedRating, ReviewCount, " +
                 "Calories, FatContent, SaturatedFatContent, CholesterolContent, " +
                 "SodiumContent, CarbohydrateContent, FiberContent, SugarContent, " +
-                "ProteinContent, RecipeServings, RecipeYield" +
-                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                "ProteinContent, RecipeServings, RecipeYield, IngredientCount" +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
         jdbcTemplate.update(insertSql,
                 newRecipeId,
@@ -271,17 +382,17 @@ public class RecipeServiceImpl implements RecipeService {
                 dto.getSugarContent(),
                 dto.getProteinContent(),
                 dto.getRecipeServings(),
-                dto.getRecipeYield()
+                dto.getRecipeYield(),
+                uniqueIngredients.size()
         );
-        if (dto.getRecipeIngredientParts() != null) {
-            String insertSqlIng = "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?)";
-            Set<String> uniqueIngredients = new HashSet<>(Arrays.asList(dto.getRecipeIngredientParts()));
-            for (String ingredient : uniqueIngredients) {
-                if (ingredient != null && !ingredient.trim().isEmpty()) {
-                    jdbcTemplate.update(insertSqlIng, newRecipeId, ingredient);
-                }
-            }
+        String insertSqlIng = "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?)";
+        for (String ingredient : uniqueIngredients) {
+            jdbcTemplate.update(insertSqlIng, newRecipeId, ingredient);
         }
+        feedTimeline.recipeCreated(newRecipeId);
+        caloriePairTracker.recipeCreated(newRecipeId);
+        pageCounter.invalidate();
+        recipeCache.invalidate(newRecipeId);
         return newRecipeId;
     }
 
@@ -291,10 +402,13 @@ public class RecipeServiceImpl implements RecipeService {
         if(auth==null){
             throw(new SecurityException("Invalid auth info"));
         }
-        String query="SELECT AuthorId FROM recipes WHERE RecipeId=?";
+        String query="SELECT AuthorId, Calories FROM recipes WHERE RecipeId=?";
         long authorId;
+        BigDecimal calories;
         try {
-            authorId = jdbcTemplate.queryForObject(query, new Object[]{recipeId}, Long.class);
+            Map<String, Object> recipe = jdbcTemplate.queryForMap(query, recipeId);
+            authorId = ((Number) recipe.get("AuthorId")).longValue();
+            calories = (BigDecimal) recipe.get("Calories");
         } catch (EmptyResultDataAccessException e) {
             throw new SecurityException("Recipe not found or no permission to delete", e);
         }
@@ -307,6 +421,10 @@ public class RecipeServiceImpl implements RecipeService {
         jdbcTemplate.update(deleteSql2, recipeId);
         String deleteSql = "DELETE FROM recipes WHERE RecipeId = ?";
         jdbcTemplate.update(deleteSql, recipeId);
+        feedTimeline.recipeDeleted(recipeId, authorId);
+        caloriePairTracker.recipeDeleted(recipeId, calories);
+        pageCounter.invalidate();
+        recipeCache.invalidate(recipeId);
     }
 
     @Override
@@ -354,63 +472,31 @@ public class RecipeServiceImpl implements RecipeService {
                 totalDuration.toString(),
                 recipeId
         );
+        recipeCache.invalidate(recipeId);
     }
 
     @Override
     public Map<String, Object> getClosestCaloriePair() {
-        String sql = "WITH sorted_recipes AS (" +
-                "    SELECT " +
-                "        RecipeId, " +
-                "        Calories, " +
-                "        LEAD(RecipeId) OVER (ORDER BY Calories ASC, RecipeId ASC) AS NextRecipeId, " +
-                "        LEAD(Calories) OVER (ORDER BY Calories ASC, RecipeId ASC) AS NextCalories " +
-                "    FROM recipes " +
-                "    WHERE Calories IS NOT NULL" +
-                "), " +
-                "calorie_diffs AS (" +
-                "    SELECT " +
-                "        RecipeId AS RecipeA, " +
-                "        NextRecipeId AS RecipeB, " +
-                "        Calories AS CaloriesA, " +
-                "        NextCalories AS CaloriesB, " +
-                "        ABS(Calories - NextCalories) AS Difference " +
-                "    FROM sorted_recipes " +
-                "    WHERE NextRecipeId IS NOT NULL" +
-                ") " +
-                "SELECT RecipeA, RecipeB, CaloriesA, CaloriesB, Difference " +
-                "FROM calorie_diffs " +
-                "ORDER BY Difference ASC, RecipeA ASC, RecipeB ASC " +
-                "LIMIT 1";
-
-        try {
-            Map<String, Object> result = jdbcTemplate.queryForObject(sql, (rs, rowNum) -> {
-                Map<String, Object> pair = new HashMap<>();
-                pair.put("RecipeA", rs.getLong("RecipeA"));
-                pair.put("RecipeB", rs.getLong("RecipeB"));
-                pair.put("CaloriesA", rs.getDouble("CaloriesA"));
-                pair.put("CaloriesB", rs.getDouble("CaloriesB"));
-                pair.put("Difference", rs.getDouble("Difference"));
-                return pair;
-            });
-            return result;
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
+        return caloriePairTracker.closestPair();
     }
 
     @Override
     public List<Map<String, Object>> getTop3MostComplexRecipesByIngredients() {
+        return getMostComplexRecipesByIngredients(3);
+    }
+
+    @Override
+    public List<Map<String, Object>> getMostComplexRecipesByIngredients(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        // IngredientCount is kept with the rows of recipe_ingredients, read in the order of idx_recipes_ingredientcount
         String sql = """
-        SELECT 
-            r.recipeid AS RecipeId,
-            r.name AS Name,
-            COUNT(ri.ingredientpart) AS IngredientCount
-        FROM recipes r
-        INNER JOIN recipe_ingredients ri ON r.recipeid = ri.recipeid
-        WHERE ri.ingredientpart IS NOT NULL
-        GROUP BY r.recipeid, r.name
-        ORDER BY IngredientCount DESC, r.recipeid ASC
-        LIMIT 3
+        SELECT RecipeId, Name, IngredientCount
+        FROM recipes
+        WHERE IngredientCount > 0
+        ORDER BY IngredientCount DESC, RecipeId ASC
+        LIMIT ?
         """;
 
         try {
@@ -420,13 +506,12 @@ public class RecipeServiceImpl implements RecipeService {
                 recipe.put("Name", rs.getString("Name") == null ? "未知名称" : rs.getString("Name"));
                 recipe.put("IngredientCount", rs.getInt("IngredientCount"));
                 return recipe;
-            });
+            }, limit);
         } catch (EmptyResultDataAccessException e) {
             return List.of();
         } catch (Exception e) {
-            throw new RuntimeException("获取前3个最复杂食谱失败", e);
+            throw new RuntimeException("获取最复杂食谱失败", e);
         }
     }
 
-
 }
\ No newline at end of file
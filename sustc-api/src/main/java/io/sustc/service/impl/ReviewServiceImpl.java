@@ -1,14 +1,18 @@
 package io.sustc.service.impl;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.BatchResult;
+import io.sustc.dto.LikeReq;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.ReviewReq;
 import io.sustc.service.RecipeService;
 import io.sustc.service.ReviewService;
 import io.sustc.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -16,11 +20,16 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.sql.Array;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -33,6 +42,30 @@ public class ReviewServiceImpl implements ReviewService {
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private IngredientLoader ingredientLoader;
+
+    @Autowired
+    private PageCounter pageCounter;
+
+    @Autowired
+    private RecipeCache recipeCache;
+
+    @Autowired
+    private RatingMaintainer ratingMaintainer;
+
+    @Autowired
+    private Authenticator authenticator;
+
+    @Autowired
+    private ActiveUsers activeUsers;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
     @Override
     @Transactional
     public long addReview(AuthInfo auth, long recipeId, int rating, String review) {
@@ -42,20 +75,17 @@ public class ReviewServiceImpl implements ReviewService {
         if (rating < 1 || rating > 5) {
             throw new IllegalArgumentException("Invalid rating");
         }
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false";
-        Long userId;
-        try {
-            userId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId());
-        } catch (EmptyResultDataAccessException e) {
+        if (!activeUsers.isActive(auth.getAuthorId())) {
             throw new SecurityException("User is invalid or inactive");
         }
+        long userId = auth.getAuthorId();
         String recipeCheckSql = "SELECT 1 FROM recipes WHERE RecipeId = ?";
         try {
             jdbcTemplate.queryForObject(recipeCheckSql, Integer.class, recipeId);
         } catch (EmptyResultDataAccessException e) {
             return -1;
         }
-        long reviewId = generateNextReviewId();
+        long reviewId = idAllocator.next(IdAllocator.IdSequence.REVIEW);
         Timestamp now = Timestamp.from(Instant.now());
         String insertSql = """
         INSERT INTO reviews (
@@ -72,14 +102,9 @@ public class ReviewServiceImpl implements ReviewService {
                 now
         );
 
-        refreshRecipeAggregatedRating(recipeId);
+        ratingMaintainer.reviewAdded(recipeId, rating);
         return reviewId;
     }
-    private long generateNextReviewId() {
-        String sql = "SELECT COALESCE(MAX(ReviewId), 0) FROM reviews";
-        Long maxId = jdbcTemplate.queryForObject(sql, Long.class);
-        return (maxId == null ? 0L : maxId) + 1;
-    }
 
     @Override
     @Transactional
@@ -91,22 +116,23 @@ public class ReviewServiceImpl implements ReviewService {
             throw new IllegalArgumentException("Invalid rating");
         }
 
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false";
-        Long userId;
-        try {
-            userId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId());
-        } catch (EmptyResultDataAccessException e) {
+        if (!activeUsers.isActive(auth.getAuthorId())) {
             throw new SecurityException("User is invalid or inactive");
         }
+        long userId = auth.getAuthorId();
         String recipeCheckSql = "SELECT COUNT(*) FROM recipes WHERE RecipeId = ?";
         Integer recipeCount = jdbcTemplate.queryForObject(recipeCheckSql, Integer.class, recipeId);
         if (recipeCount == null || recipeCount == 0) {
             throw new IllegalArgumentException("Recipe not found");
         }
-        String reviewCheckSql = "SELECT AuthorId FROM reviews WHERE ReviewId = ? AND RecipeId = ?";
+        // locked, so the rating replaced is still the one applied to the recipe totals
+        String reviewCheckSql = "SELECT AuthorId, Rating FROM reviews WHERE ReviewId = ? AND RecipeId = ? FOR UPDATE";
         Long reviewAuthorId;
+        int oldRating;
         try {
-            reviewAuthorId = jdbcTemplate.queryForObject(reviewCheckSql, Long.class, reviewId, recipeId);
+            Map<String, Object> row = jdbcTemplate.queryForMap(reviewCheckSql, reviewId, recipeId);
+            reviewAuthorId = ((Number) row.get("AuthorId")).longValue();
+            oldRating = ((Number) row.get("Rating")).intValue();
         } catch (EmptyResultDataAccessException e) {
             throw new IllegalArgumentException("Review not found");
         }
@@ -121,7 +147,7 @@ public class ReviewServiceImpl implements ReviewService {
         if (updated == 0) {
             throw new IllegalArgumentException("Review not found");
         }
-        refreshRecipeAggregatedRating(recipeId);
+        ratingMaintainer.reviewEdited(recipeId, oldRating, rating);
     }
 
     @Override
@@ -131,91 +157,332 @@ public class ReviewServiceImpl implements ReviewService {
             throw new IllegalArgumentException("Invalid auth information");
         }
 
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false";
-        Long userId;
-        try {
-            userId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId());
-        } catch (EmptyResultDataAccessException e) {
+        if (!activeUsers.isActive(auth.getAuthorId())) {
             throw new SecurityException("User is invalid or inactive");
         }
-        String query = "SELECT AuthorId FROM reviews WHERE RecipeId = ? AND ReviewId = ?";
-        List<Long> authors = jdbcTemplate.queryForList(query, Long.class, recipeId, reviewId);
+        long userId = auth.getAuthorId();
+        // locked, so the rating removed is still the one applied to the recipe totals
+        String query = "SELECT AuthorId, Rating FROM reviews WHERE RecipeId = ? AND ReviewId = ? FOR UPDATE";
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(query, recipeId, reviewId);
 
-        if (authors.isEmpty()) {
+        if (rows.isEmpty()) {
             throw new IllegalArgumentException("Review not found or does not belong to the specified recipe");
         }
 
-        long authorId = authors.get(0);
+        long authorId = ((Number) rows.get(0).get("AuthorId")).longValue();
         if (authorId != userId) {
             throw new SecurityException("Not allowed to delete this review");
         }
+        int rating = ((Number) rows.get(0).get("Rating")).intValue();
 
         jdbcTemplate.update("DELETE FROM review_likes WHERE ReviewId = ?", reviewId);
         jdbcTemplate.update("DELETE FROM reviews WHERE ReviewId = ?", reviewId);
-        refreshRecipeAggregatedRating(recipeId);
+        ratingMaintainer.reviewDeleted(recipeId, rating);
     }
 
+    /**
+     * Likes the review in one statement: the checks, the like and the counter, returning what the checks
+     * found with the new count. The like is only inserted once every check passed. The password has been
+     * checked by {@link Authenticator} before, the statement checks the user is still active.
+     */
+    private static final String LIKE_SQL = """
+            WITH u AS (
+                SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false
+            ), r AS (
+                SELECT ReviewId, AuthorId, LikeCount FROM reviews WHERE ReviewId = ?
+            ), liked AS (
+                INSERT INTO review_likes (ReviewId, AuthorId)
+                SELECT r.ReviewId, u.AuthorId FROM u, r WHERE r.AuthorId <> u.AuthorId
+                ON CONFLICT DO NOTHING
+                RETURNING ReviewId
+            ), counted AS (
+                UPDATE reviews SET LikeCount = LikeCount + 1
+                WHERE ReviewId IN (SELECT ReviewId FROM liked)
+                RETURNING LikeCount
+            )
+            SELECT EXISTS (SELECT 1 FROM u) AS user_valid,
+                   (SELECT AuthorId FROM r) AS review_author,
+                   COALESCE((SELECT LikeCount FROM counted), (SELECT LikeCount FROM r)) AS like_count
+            """;
+
+    private static final String UNLIKE_SQL = """
+            WITH u AS (
+                SELECT AuthorId FROM users WHERE AuthorId = ? AND IsDeleted = false
+            ), r AS (
+                SELECT ReviewId, LikeCount FROM reviews WHERE ReviewId = ?
+            ), unliked AS (
+                DELETE FROM review_likes l USING u, r
+                WHERE l.ReviewId = r.ReviewId AND l.AuthorId = u.AuthorId
+                RETURNING l.ReviewId
+            ), counted AS (
+                UPDATE reviews SET LikeCount = LikeCount - 1
+                WHERE ReviewId IN (SELECT ReviewId FROM unliked)
+                RETURNING LikeCount
+            )
+            SELECT EXISTS (SELECT 1 FROM u) AS user_valid,
+                   EXISTS (SELECT 1 FROM r) AS review_exists,
+                   COALESCE((SELECT LikeCount FROM counted), (SELECT LikeCount FROM r)) AS like_count
+            """;
+
     @Override
-    @Transactional
     public long likeReview(AuthInfo auth, long reviewId) {
         if (auth == null || auth.getPassword() == null) {
             throw new IllegalArgumentException("Invalid auth information");
         }
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND Password = ? AND IsDeleted = false";
-        Long userId;
-        try {
-            userId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId(), auth.getPassword());
-        } catch (EmptyResultDataAccessException e) {
+        if (!authenticator.verify(auth.getAuthorId(), auth.getPassword())) {
             throw new SecurityException("Invalid credentials or user inactive");
         }
-        String checkReviewSql = "SELECT AuthorId FROM reviews WHERE ReviewId = ?";
-        Long reviewAuthorId;
-        try {
-            reviewAuthorId = jdbcTemplate.queryForObject(checkReviewSql, Long.class, reviewId);
-        } catch (EmptyResultDataAccessException e) {
+        // a single statement, so it needs no transaction of its own
+        Map<String, Object> result = jdbcTemplate.queryForMap(LIKE_SQL, auth.getAuthorId(), reviewId);
+        if (!Boolean.TRUE.equals(result.get("user_valid"))) {
+            throw new SecurityException("Invalid credentials or user inactive");
+        }
+        Object reviewAuthorId = result.get("review_author");
+        if (reviewAuthorId == null) {
             throw new IllegalArgumentException("Review does not exist");
         }
-        if (Objects.equals(reviewAuthorId, userId)) {
+        if (((Number) reviewAuthorId).longValue() == auth.getAuthorId()) {
             throw new IllegalArgumentException("Cannot like your own review");
         }
-        String checkLikeSql = "SELECT COUNT(*) FROM review_likes WHERE ReviewId = ? AND AuthorId = ?";
-        Integer likeCount = jdbcTemplate.queryForObject(checkLikeSql, Integer.class, reviewId, userId);
-        if (likeCount == null || likeCount == 0) {
-            jdbcTemplate.update("INSERT INTO review_likes (ReviewId, AuthorId) VALUES (?, ?)", reviewId, userId);
-        }
-
-        String countSql = "SELECT COUNT(*) FROM review_likes WHERE ReviewId = ?";
-        Integer totalLikes = jdbcTemplate.queryForObject(countSql, Integer.class, reviewId);
-        return totalLikes != null ? totalLikes : 0L;
+        return ((Number) result.get("like_count")).longValue();
     }
 
     @Override
-    @Transactional
     public long unlikeReview(AuthInfo auth, long reviewId) {
         if (auth == null || auth.getAuthorId() <= 0) {
             throw new IllegalArgumentException("Invalid auth info: authorId is required");
         }
-        String userCheckSql = "SELECT AuthorId FROM users WHERE AuthorId = ? AND Password = ? AND IsDeleted = false";
-        Long userId;
-        try {
-            userId = jdbcTemplate.queryForObject(userCheckSql, Long.class, auth.getAuthorId(), auth.getPassword());
-        } catch (EmptyResultDataAccessException e) {
+        if (!authenticator.verify(auth.getAuthorId(), auth.getPassword())) {
             throw new SecurityException("Invalid credentials or user inactive");
         }
-        String checkReviewSql = "SELECT 1 FROM reviews WHERE ReviewId = ?";
-        try {
-            jdbcTemplate.queryForObject(checkReviewSql, Integer.class, reviewId);
-        } catch (EmptyResultDataAccessException e) {
+        Map<String, Object> result = jdbcTemplate.queryForMap(UNLIKE_SQL, auth.getAuthorId(), reviewId);
+        if (!Boolean.TRUE.equals(result.get("user_valid"))) {
+            throw new SecurityException("Invalid credentials or user inactive");
+        }
+        if (!Boolean.TRUE.equals(result.get("review_exists"))) {
             throw new IllegalArgumentException("Review does not exist");
         }
-        jdbcTemplate.update("DELETE FROM review_likes WHERE ReviewId = ? AND AuthorId = ?", reviewId, userId);
-        String likesql="SELECT COUNT(*) FROM review_likes WHERE ReviewId=?";
-        int likes = jdbcTemplate.queryForObject(likesql, Integer.class, reviewId);
-        return likes;
+        return ((Number) result.get("like_count")).longValue();
+    }
+
+    /**
+     * The reviews of {@link #addReviews}, inserted in one statement. Those of recipes which do not exist are
+     * left out by the join, and told apart by the IDs returned. When the database refuses one of the rows,
+     * the statement is run again for each row alone, to add the others.
+     */
+    private static final String ADD_REVIEWS_SQL = """
+            INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified)
+            SELECT t.ReviewId, t.RecipeId, t.AuthorId, t.Rating, t.Review, ?, ?
+            FROM UNNEST(?::bigint[], ?::bigint[], ?::bigint[], ?::integer[], ?::text[])
+                AS t(ReviewId, RecipeId, AuthorId, Rating, Review)
+            JOIN recipes r ON r.RecipeId = t.RecipeId
+            RETURNING ReviewId
+            """;
+
+    @Override
+    @Transactional
+    public List<BatchResult> addReviews(List<ReviewReq> reviews) {
+        if (reviews == null) {
+            throw new IllegalArgumentException("Reviews must not be null");
+        }
+        BatchResult[] results = new BatchResult[reviews.size()];
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < reviews.size(); i++) {
+            ReviewReq req = reviews.get(i);
+            if (req == null || req.getAuth() == null) {
+                results[i] = BatchResult.failure("Invalid auth information");
+            } else if (req.getRating() < 1 || req.getRating() > 5) {
+                results[i] = BatchResult.failure("Invalid rating");
+            } else if (!activeUsers.isActive(req.getAuth().getAuthorId())) {
+                results[i] = BatchResult.failure("User is invalid or inactive");
+            } else {
+                accepted.add(i);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        int count = accepted.size();
+        long[] reviewIds = idAllocator.next(IdAllocator.IdSequence.REVIEW, count);
+        Long[] ids = new Long[count];
+        Long[] recipeIds = new Long[count];
+        Long[] authorIds = new Long[count];
+        Integer[] ratings = new Integer[count];
+        String[] texts = new String[count];
+        for (int k = 0; k < count; k++) {
+            ReviewReq req = reviews.get(accepted.get(k));
+            ids[k] = reviewIds[k];
+            recipeIds[k] = req.getRecipeId();
+            authorIds[k] = req.getAuth().getAuthorId();
+            ratings[k] = req.getRating();
+            texts[k] = req.getReview();
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        Set<Long> inserted = new HashSet<>();
+        String[] errors = new String[count];
+        // under a savepoint, so a failed statement rolls back only itself and not the transaction
+        TransactionTemplate savepoint = new TransactionTemplate(transactionManager);
+        savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        try {
+            inserted.addAll(savepoint.execute(status -> insertReviews(now, ids, recipeIds, authorIds, ratings, texts)));
+        } catch (DataAccessException e) {
+            // one of the rows is refused by the database, find which by inserting them one by one
+            log.warn("Bulk insert of {} reviews failed, inserting them one by one: {}", count,
+                    e.getMostSpecificCause().getMessage());
+            for (int k = 0; k < count; k++) {
+                int row = k;
+                try {
+                    inserted.addAll(savepoint.execute(status -> insertReviews(now,
+                            new Long[]{ids[row]}, new Long[]{recipeIds[row]}, new Long[]{authorIds[row]},
+                            new Integer[]{ratings[row]}, new String[]{texts[row]})));
+                } catch (DataAccessException rowError) {
+                    errors[k] = rowError.getMostSpecificCause().getMessage();
+                }
+            }
+        }
+
+        // the sum and the count of the new ratings of each recipe, applied once per recipe
+        Map<Long, long[]> added = new HashMap<>();
+        for (int k = 0; k < count; k++) {
+            int i = accepted.get(k);
+            if (errors[k] != null) {
+                results[i] = BatchResult.failure(errors[k]);
+            } else if (inserted.contains(reviewIds[k])) {
+                results[i] = BatchResult.success(reviewIds[k]);
+                long[] total = added.computeIfAbsent(recipeIds[k], id -> new long[2]);
+                total[0] += ratings[k];
+                total[1]++;
+            } else {
+                // the recipe does not exist, for which addReview returns -1
+                results[i] = BatchResult.success(-1);
+            }
+        }
+        ratingMaintainer.reviewsAdded(added);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @return the IDs of the reviews inserted, those of existing recipes
+     */
+    private List<Long> insertReviews(Timestamp now, Long[] ids, Long[] recipeIds, Long[] authorIds,
+                                     Integer[] ratings, String[] texts) {
+        return jdbcTemplate.query(ADD_REVIEWS_SQL, ps -> {
+            ps.setTimestamp(1, now);
+            ps.setTimestamp(2, now);
+            ps.setArray(3, ps.getConnection().createArrayOf("bigint", ids));
+            ps.setArray(4, ps.getConnection().createArrayOf("bigint", recipeIds));
+            ps.setArray(5, ps.getConnection().createArrayOf("bigint", authorIds));
+            ps.setArray(6, ps.getConnection().createArrayOf("integer", ratings));
+            ps.setArray(7, ps.getConnection().createArrayOf("text", texts));
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    /**
+     * The likes of {@link #likeReviews} in one statement, as {@link #LIKE_SQL} does for one, returning for
+     * every distinct like what the checks found with the count of the review once all the likes are in.
+     */
+    private static final String LIKE_ALL_SQL = """
+            WITH req AS (
+                SELECT DISTINCT t.ReviewId, t.AuthorId FROM UNNEST(?::bigint[], ?::bigint[]) AS t(ReviewId, AuthorId)
+            ), liked AS (
+                INSERT INTO review_likes (ReviewId, AuthorId)
+                SELECT req.ReviewId, req.AuthorId
+                FROM req
+                JOIN reviews r ON r.ReviewId = req.ReviewId
+                JOIN users u ON u.AuthorId = req.AuthorId AND u.IsDeleted = false
+                WHERE r.AuthorId <> req.AuthorId
+                ON CONFLICT DO NOTHING
+                RETURNING ReviewId
+            ), counted AS (
+                UPDATE reviews r SET LikeCount = r.LikeCount + l.likes
+                FROM (SELECT ReviewId, COUNT(*) AS likes FROM liked GROUP BY ReviewId) l
+                WHERE r.ReviewId = l.ReviewId
+                RETURNING r.ReviewId, r.LikeCount
+            )
+            SELECT req.ReviewId, req.AuthorId,
+                   EXISTS (SELECT 1 FROM users u WHERE u.AuthorId = req.AuthorId AND u.IsDeleted = false) AS user_valid,
+                   r.AuthorId AS review_author,
+                   COALESCE(c.LikeCount, r.LikeCount) AS like_count
+            FROM req
+            LEFT JOIN reviews r ON r.ReviewId = req.ReviewId
+            LEFT JOIN counted c ON c.ReviewId = req.ReviewId
+            """;
+
+    @Override
+    public List<BatchResult> likeReviews(List<LikeReq> likes) {
+        if (likes == null) {
+            throw new IllegalArgumentException("Likes must not be null");
+        }
+        BatchResult[] results = new BatchResult[likes.size()];
+        // a user liking many reviews has its password checked once
+        Map<AuthInfo, Boolean> verified = new HashMap<>();
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < likes.size(); i++) {
+            LikeReq req = likes.get(i);
+            if (req == null || req.getAuth() == null || req.getAuth().getPassword() == null) {
+                results[i] = BatchResult.failure("Invalid auth information");
+            } else if (!verified.computeIfAbsent(req.getAuth(),
+                    auth -> authenticator.verify(auth.getAuthorId(), auth.getPassword()))) {
+                results[i] = BatchResult.failure("Invalid credentials or user inactive");
+            } else {
+                accepted.add(i);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        Long[] reviewIds = new Long[accepted.size()];
+        Long[] authorIds = new Long[accepted.size()];
+        for (int k = 0; k < accepted.size(); k++) {
+            LikeReq req = likes.get(accepted.get(k));
+            reviewIds[k] = req.getReviewId();
+            authorIds[k] = req.getAuth().getAuthorId();
+        }
+        Map<LikeKey, LikeOutcome> outcomes = new HashMap<>();
+        // a single statement, so it needs no transaction of its own
+        jdbcTemplate.query(LIKE_ALL_SQL, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", reviewIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", authorIds));
+        }, rs -> {
+            outcomes.put(new LikeKey(rs.getLong("ReviewId"), rs.getLong("AuthorId")), new LikeOutcome(
+                    rs.getBoolean("user_valid"), (Number) rs.getObject("review_author"), rs.getLong("like_count")));
+        });
+
+        for (int k = 0; k < accepted.size(); k++) {
+            LikeOutcome outcome = outcomes.get(new LikeKey(reviewIds[k], authorIds[k]));
+            BatchResult result;
+            if (!outcome.userValid()) {
+                result = BatchResult.failure("Invalid credentials or user inactive");
+            } else if (outcome.reviewAuthorId() == null) {
+                result = BatchResult.failure("Review does not exist");
+            } else if (outcome.reviewAuthorId().longValue() == authorIds[k]) {
+                result = BatchResult.failure("Cannot like your own review");
+            } else {
+                result = BatchResult.success(outcome.likeCount());
+            }
+            results[accepted.get(k)] = result;
+        }
+        return Arrays.asList(results);
+    }
+
+    private record LikeKey(long reviewId, long authorId) {
+    }
+
+    /**
+     * @param reviewAuthorId {@code null} if the review does not exist
+     */
+    private record LikeOutcome(boolean userValid, Number reviewAuthorId, long likeCount) {
     }
 
     @Override
     public PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort) {
+        return listByRecipe(recipeId, page, size, sort, true);
+    }
+
+    @Override
+    public PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort, boolean includeTotal) {
         String checkRecipeSql = "SELECT 1 FROM recipes WHERE RecipeId = ? LIMIT 1";
         try {
             jdbcTemplate.queryForObject(checkRecipeSql, Integer.class, recipeId);
@@ -227,50 +494,104 @@ public class ReviewServiceImpl implements ReviewService {
         }
         String orderBy = "ORDER BY DateModified DESC";
         if ("likes_desc".equals(sort)) {
-            orderBy = "ORDER BY (SELECT COUNT(*) FROM review_likes WHERE ReviewId = r.ReviewId) DESC, DateModified DESC";
+            orderBy = "ORDER BY r.LikeCount DESC, DateModified DESC";
         }
-        String count="SELECT COUNT(*) FROM reviews WHERE RecipeId = ?";
-        long total = jdbcTemplate.queryForObject(count, Long.class, recipeId);
         int offset = (page - 1) * size;
-        String dataSql = "SELECT r.ReviewId, r.RecipeId, r.AuthorId, u.AuthorName, " +
-                "r.Rating, r.Review, r.DateSubmitted, r.DateModified, " +
-                "(SELECT ARRAY_AGG(AuthorId) FROM review_likes WHERE ReviewId = r.ReviewId) AS likes " +
-                "FROM reviews r " +
-                "LEFT JOIN users u ON r.AuthorId = u.AuthorId " +
-                "WHERE r.RecipeId = ? " +
-                orderBy + " LIMIT ? OFFSET ?";
-        List<ReviewRecord> reviews=jdbcTemplate.query(dataSql, (rs, rowNum) ->{
-            ReviewRecord reviewRecord=new ReviewRecord();
-            reviewRecord.setReviewId(rs.getLong("ReviewId"));
-            reviewRecord.setRecipeId(rs.getLong("RecipeId"));
-            reviewRecord.setAuthorId(rs.getLong("AuthorId"));
-            reviewRecord.setAuthorName(rs.getString("AuthorName"));
-            reviewRecord.setRating(rs.getFloat("Rating"));
-            reviewRecord.setReview(rs.getString("Review"));
-            reviewRecord.setDateSubmitted(rs.getTimestamp("DateSubmitted"));
-            reviewRecord.setDateModified(rs.getTimestamp("DateModified"));
-            Array likesArray = rs.getArray("likes");
-            if (likesArray != null) {
-                Object[] array = (Object[]) likesArray.getArray();
-                long[] likes = new long[array.length];
-                for (int i = 0; i < array.length; i++) {
-                    Number num = (Number) array[i];
-                    likes[i] = num.longValue();
-                }
-                reviewRecord.setLikes(likes);
-            } else {
-                reviewRecord.setLikes(new long[0]);
-            }
-            return reviewRecord;
-        }, recipeId, size, offset);
+        List<Object> params = new ArrayList<>();
+        params.add(recipeId);
+        PageCounter.Page<ReviewRecord> result = pageCounter.fetch(REVIEW_COLUMNS, REVIEW_FROM + "WHERE r.RecipeId = ?",
+                params, orderBy, size, offset, (rs, rowNum) -> mapReviewRow(rs), includeTotal);
         return PageResult.<ReviewRecord>builder()
-                .total(total)
+                .total(result.total())
                 .page(page)
                 .size(size)
+                .items(result.items())
+                .build();
+    }
+
+    @Override
+    public PageResult<ReviewRecord> listByRecipeByCursor(long recipeId, String cursor, int size, String sort) {
+        String checkRecipeSql = "SELECT 1 FROM recipes WHERE RecipeId = ? LIMIT 1";
+        try {
+            jdbcTemplate.queryForObject(checkRecipeSql, Integer.class, recipeId);
+        } catch (EmptyResultDataAccessException e) {
+            throw new IllegalArgumentException("Recipe does not exist");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid page or size");
+        }
+        Keyset keyset = "likes_desc".equals(sort) ? REVIEW_LIKES_ORDERING : REVIEW_DATE_ORDERING;
+        boolean firstPage = cursor == null || cursor.isEmpty();
+        List<Object> params = new ArrayList<>();
+        params.add(recipeId);
+        StringBuilder whereClause = new StringBuilder("WHERE r.RecipeId = ?");
+        keyset.appendSeek(cursor, whereClause, params);
+
+        List<String[]> keys = new ArrayList<>();
+        // one more row than asked tells whether there is a next page
+        PageCounter.Page<ReviewRecord> result = pageCounter.fetch(REVIEW_COLUMNS + ", " + keyset.selectKeys(),
+                REVIEW_FROM + whereClause, params, keyset.orderBy(), size + 1, 0, (rs, rowNum) -> {
+                    keys.add(keyset.readKeys(rs));
+                    return mapReviewRow(rs);
+                }, firstPage);
+        List<ReviewRecord> reviews = result.items();
+        String nextCursor = null;
+        if (reviews.size() > size) {
+            reviews.remove(reviews.size() - 1);
+            nextCursor = keyset.encode(keys.get(size - 1));
+        }
+        return PageResult.<ReviewRecord>builder()
+                .total(result.total())
+                .size(size)
                 .items(reviews)
+                .nextCursor(nextCursor)
                 .build();
     }
 
+    private static final String REVIEW_FROM = "reviews r LEFT JOIN users u ON r.AuthorId = u.AuthorId ";
+
+    private static final String REVIEW_COLUMNS = "r.ReviewId, r.RecipeId, r.AuthorId, u.AuthorName, " +
+            "r.Rating, r.Review, r.DateSubmitted, r.DateModified, " +
+            "(SELECT ARRAY_AGG(AuthorId) FROM review_likes WHERE ReviewId = r.ReviewId) AS likes";
+
+    /**
+     * Newest first, served by the (RecipeId, DateModified) index; the review ID makes the order total.
+     */
+    private static final Keyset REVIEW_DATE_ORDERING = new Keyset("date_desc", true,
+            Keyset.nullableKey("r.DateModified", "timestamp"), Keyset.key("r.ReviewId", "bigint"));
+
+    /**
+     * Most liked first, served by the (RecipeId, LikeCount, DateModified, ReviewId) index.
+     */
+    private static final Keyset REVIEW_LIKES_ORDERING = new Keyset("likes_desc", true,
+            Keyset.key("r.LikeCount", "integer"),
+            Keyset.nullableKey("r.DateModified", "timestamp"), Keyset.key("r.ReviewId", "bigint"));
+
+    private static ReviewRecord mapReviewRow(ResultSet rs) throws SQLException {
+        ReviewRecord reviewRecord=new ReviewRecord();
+        reviewRecord.setReviewId(rs.getLong("ReviewId"));
+        reviewRecord.setRecipeId(rs.getLong("RecipeId"));
+        reviewRecord.setAuthorId(rs.getLong("AuthorId"));
+        reviewRecord.setAuthorName(rs.getString("AuthorName"));
+        reviewRecord.setRating(rs.getFloat("Rating"));
+        reviewRecord.setReview(rs.getString("Review"));
+        reviewRecord.setDateSubmitted(rs.getTimestamp("DateSubmitted"));
+        reviewRecord.setDateModified(rs.getTimestamp("DateModified"));
+        Array likesArray = rs.getArray("likes");
+        if (likesArray != null) {
+            Object[] array = (Object[]) likesArray.getArray();
+            long[] likes = new long[array.length];
+            for (int i = 0; i < array.length; i++) {
+                Number num = (Number) array[i];
+                likes[i] = num.longValue();
+            }
+            reviewRecord.setLikes(likes);
+        } else {
+            reviewRecord.setLikes(new long[0]);
+        }
+        return reviewRecord;
+    }
+
     @Override
     @Transactional
     public RecipeRecord refreshRecipeAggregatedRating(long recipeId) {
@@ -282,7 +603,8 @@ public class ReviewServiceImpl implements ReviewService {
         if (!Boolean.TRUE.equals(exists)) {
             throw new IllegalArgumentException("Recipe does not exist");
         }
-        String statsSql = "SELECT COUNT(*) AS review_count, AVG(Rating) AS avg_rating " +
+        String statsSql = "SELECT COUNT(*) AS review_count, AVG(Rating) AS avg_rating, " +
+                "COALESCE(SUM(Rating), 0) AS rating_sum, COUNT(Rating) AS rating_count " +
                 "FROM reviews WHERE RecipeId = ?";
         Map<String, Object> stats = jdbcTemplate.queryForMap(statsSql, recipeId);
         int reviewCount = ((Number) stats.get("review_count")).intValue();
@@ -302,12 +624,18 @@ public class ReviewServiceImpl implements ReviewService {
 
         }
 
+        // also repairs the running totals RatingMaintainer applies the review changes to
         jdbcTemplate.update(
-                "UPDATE recipes SET AggregatedRating = ?, ReviewCount = ? WHERE RecipeId = ?",
+                "UPDATE recipes SET AggregatedRating = ?, ReviewCount = ?, RatingSum = ?, RatingCount = ? WHERE RecipeId = ?",
                 finalAvgRating,
                 reviewCount,
+                ((Number) stats.get("rating_sum")).longValue(),
+                ((Number) stats.get("rating_count")).intValue(),
                 recipeId
         );
+        // the review count and the rating filter of the search changed
+        pageCounter.invalidate();
+        recipeCache.invalidate(recipeId);
         String dataSql = """
         SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName,
                r.CookTime, r.PrepTime, r.TotalTime, r.DatePublished, r.Description, r.RecipeCategory,
@@ -345,7 +673,7 @@ public class ReviewServiceImpl implements ReviewService {
                             .proteinContent(rs.getFloat("ProteinContent"))
                             .recipeServings(parseRecipeServings(rs.getString("RecipeServings")))
                             .recipeYield(rs.getString("RecipeYield"))
-                            .recipeIngredientParts(getIngredientsByRecipeId(rs.getLong("RecipeId")))
+                            .recipeIngredientParts(ingredientLoader.load(rs.getLong("RecipeId")))
                             .build()
             );
         } catch (EmptyResultDataAccessException e) {
@@ -363,9 +691,4 @@ public class ReviewServiceImpl implements ReviewService {
             return numericPart.isEmpty() ? 0 : Integer.parseInt(numericPart);
         }
     }
-    private String[] getIngredientsByRecipeId(long recipeId) {
-        String sql = "SELECT IngredientPart FROM recipe_ingredients WHERE RecipeId = ? ORDER BY LOWER(IngredientPart)";
-        List<String> ingredients = jdbcTemplate.queryForList(sql, String.class, recipeId);
-        return ingredients.toArray(new String[0]);
-    }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares the keyword filter of {@link RecipeServiceImpl#searchRecipes} with and without the trigram indexes.
+ * <p>
+ * For every size, the imported recipes are copied (repeatedly, with shifted IDs, when there are fewer of them)
+ * into a temporary table. The count and first page queries of a search are timed on the bare table first,
+ * then again once the {@link IndexCatalog#getTrigramIndexes() trigram indexes} are built on it.
+ * Everything runs in one transaction which is rolled back, so the database is left as it was.
+ */
+@Component
+@Slf4j
+public class SearchBenchmark {
+
+    private static final String TABLE = "search_benchmark_recipes";
+
+    /**
+     * Frequent and rare words, and one shorter than a trigram.
+     */
+    private static final List<String> KEYWORDS = List.of("chicken", "cake", "sauce", "garlic", "low fat", "quinoa", "zz");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private IndexCatalog indexCatalog;
+
+    public List<String> run(List<Integer> sizes, int rounds) {
+        if (sizes == null || sizes.isEmpty() || rounds <= 0) {
+            throw new IllegalArgumentException("Sizes and rounds must be given");
+        }
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%10s %12s %12s %8s  %s", "recipes", "like (ms)", "trigram (ms)", "speedup", "same results"));
+        for (int size : sizes) {
+            transactionTemplate.executeWithoutResult(status -> {
+                report.add(runSize(size, rounds));
+                status.setRollbackOnly();
+            });
+        }
+        report.forEach(line -> log.info("{}", line));
+        return report;
+    }
+
+    private String runSize(int size, int rounds) {
+        jdbcTemplate.execute("CREATE TEMP TABLE " + TABLE + " ON COMMIT DROP AS " +
+                "SELECT g * 100000000 + r.RecipeId AS RecipeId, r.Name, r.Description, r.AggregatedRating " +
+                "FROM generate_series(0, " + (size - 1) + ") g CROSS JOIN LATERAL " +
+                "(SELECT RecipeId, Name, Description, AggregatedRating FROM recipes) r " +
+                "LIMIT " + size);
+        jdbcTemplate.execute("ANALYZE " + TABLE);
+
+        List<List<Long>> likeResults = new ArrayList<>();
+        double like = time(rounds, likeResults);
+
+        for (IndexCatalog.IndexDefinition index : IndexCatalog.getTrigramIndexes()) {
+            jdbcTemplate.execute(index.createSQL(TABLE));
+        }
+        jdbcTemplate.execute("ANALYZE " + TABLE);
+        List<List<Long>> trigramResults = new ArrayList<>();
+        double trigram = time(rounds, trigramResults);
+
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE, Long.class);
+        return String.format("%10d %12.2f %12.2f %7.1fx  %s", rows, like, trigram,
+                trigram > 0 ? like / trigram : 0, Objects.equals(likeResults, trigramResults) ? "yes" : "NO");
+    }
+
+    /**
+     * Runs every keyword search {@code rounds} times and returns the median latency of a search, in milliseconds.
+     * The results of the last round are added to {@code results}.
+     */
+    private double time(int rounds, List<List<Long>> results) {
+        double[] samples = new double[rounds];
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (String keyword : KEYWORDS) {
+                String pattern = "%" + keyword + "%";
+                Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE +
+                        " r WHERE (LOWER(r.name) LIKE ? OR LOWER(r.description) LIKE ?)", Long.class, pattern, pattern);
+                List<Long> page = jdbcTemplate.queryForList("SELECT r.RecipeId FROM " + TABLE +
+                        " r WHERE (LOWER(r.name) LIKE ? OR LOWER(r.description) LIKE ?)" +
+                        " ORDER BY r.AggregatedRating DESC, r.RecipeId DESC LIMIT 10", Long.class, pattern, pattern);
+                if (round == rounds - 1) {
+                    page.add(0, total);
+                    results.add(page);
+                }
+            }
+            samples[round] = (System.nanoTime() - start) / 1e6 / KEYWORDS.size();
+        }
+        Arrays.sort(samples);
+        return samples[rounds / 2];
+    }
+}
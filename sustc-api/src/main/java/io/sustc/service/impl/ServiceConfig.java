@@ -0,0 +1,247 @@
+package io.sustc.service.impl;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Tunables of the service implementations, bound from the {@code sustc.*} properties.
+ * Every field has a default, so none of them has to be configured.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "sustc")
+@Data
+public class ServiceConfig {
+
+    private Importer importer = new Importer();
+
+    private IdAllocation idAllocation = new IdAllocation();
+
+    private Search search = new Search();
+
+    private Pagination pagination = new Pagination();
+
+    private RecipeCache recipeCache = new RecipeCache();
+
+    private Follow follow = new Follow();
+
+    private Feed feed = new Feed();
+
+    private Auth auth = new Auth();
+
+    @Data
+    public static class Importer {
+
+        /**
+         * How {@link DatabaseServiceImpl#importData} writes the rows into the tables.
+         */
+        private ImportMode mode = ImportMode.COPY;
+
+        /**
+         * Whether to load the tables concurrently and create the constraints and indexes afterward,
+         * instead of loading everything in one transaction with the constraints in place.
+         */
+        private boolean parallel = true;
+
+        /**
+         * Upper bound on the connections used at once by a parallel import.
+         * Keep it below the size of the connection pool.
+         */
+        private int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+
+        /**
+         * Rows buffered before they are sent to the server, by both import modes.
+         * Bounds the memory used by the import instead of the size of the data.
+         */
+        private int chunkSize = 5000;
+    }
+
+    @Data
+    public static class IdAllocation {
+
+        /**
+         * How {@link IdAllocator} reserves the IDs of new rows.
+         */
+        private IdMode mode = IdMode.SEQUENCE;
+
+        /**
+         * IDs reserved by every {@code nextval} in {@link IdMode#BLOCK} mode.
+         */
+        private int blockSize = 100;
+    }
+
+    @Data
+    public static class Search {
+
+        /**
+         * Which indexes serve the keyword filter of {@link RecipeServiceImpl#searchRecipes}.
+         */
+        private SearchBackend backend = SearchBackend.TRIGRAM;
+    }
+
+    @Data
+    public static class Pagination {
+
+        /**
+         * How the total of a page of {@link RecipeServiceImpl#searchRecipes}, {@link UserServiceImpl#feed}
+         * and {@link ReviewServiceImpl#listByRecipe} is counted, see {@link PageCounter}.
+         */
+        private CountMode countMode = CountMode.SEPARATE;
+
+        /**
+         * Counts kept in {@link CountMode#CACHED} mode, the least recently used ones are dropped first.
+         */
+        private int countCacheSize = 1024;
+
+        /**
+         * Age after which a cached count is counted again, even though no write invalidated it.
+         */
+        private Duration countCacheTtl = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class RecipeCache {
+
+        /**
+         * Whether {@link io.sustc.service.impl.RecipeCache} keeps recipes in memory.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Recipes kept at most, and as many recipe names.
+         */
+        private int capacity = 10000;
+    }
+
+    @Data
+    public static class Follow {
+
+        /**
+         * How {@link FollowEngine} adds or removes a follow and adjusts the counters of both users.
+         */
+        private FollowMode mode = FollowMode.ATOMIC;
+    }
+
+    @Data
+    public static class Feed {
+
+        /**
+         * Where {@link UserServiceImpl#feed} reads the recipes of the followed authors from.
+         */
+        private FeedMode mode = FeedMode.TIMELINE;
+
+        /**
+         * Authors with at least this many followers when the timelines are built are not fanned out,
+         * their recipes are read when the feed is requested, see {@link FeedTimeline}.
+         */
+        private int celebrityFollowers = 1000;
+    }
+
+    @Data
+    public static class Auth {
+
+        /**
+         * Whether {@link Authenticator} remembers the credentials it verified.
+         */
+        private boolean cacheEnabled = true;
+
+        /**
+         * Users whose credentials are remembered at most, the least recently used ones are dropped first.
+         */
+        private int cacheCapacity = 10000;
+
+        /**
+         * Age after which remembered credentials are verified against the database again.
+         */
+        private Duration cacheTtl = Duration.ofSeconds(60);
+    }
+
+    public enum ImportMode {
+        /**
+         * Streams the rows through {@code COPY ... FROM STDIN}, see {@link CopyImporter}.
+         */
+        COPY,
+
+        /**
+         * Binds every row to a {@link java.sql.PreparedStatement} and sends them with JDBC batches.
+         */
+        BATCH,
+    }
+
+    public enum IdMode {
+        /**
+         * One {@code nextval} per ID, which keeps the IDs consecutive as long as no insert fails.
+         */
+        SEQUENCE,
+
+        /**
+         * One {@code nextval} per block of IDs. IDs left in a block are lost when the application stops,
+         * and IDs from concurrent application instances interleave.
+         */
+        BLOCK,
+    }
+
+    public enum SearchBackend {
+        /**
+         * No index for the keyword, every search scans the recipes.
+         */
+        LIKE,
+
+        /**
+         * {@code pg_trgm} GIN indexes on the lower-cased name and description, see {@link IndexCatalog}.
+         */
+        TRIGRAM,
+    }
+
+    public enum CountMode {
+        /**
+         * A {@code SELECT COUNT(*)} with the same filters, besides the data query.
+         */
+        SEPARATE,
+
+        /**
+         * {@code COUNT(*) OVER ()} in the data query itself, one statement and one scan per page.
+         * The filtered rows are all read before the page is cut, so the plan cannot stop after the first rows.
+         */
+        WINDOW,
+
+        /**
+         * A separate count, reused for the next pages with the same filters until a write invalidates it.
+         */
+        CACHED,
+    }
+
+    public enum FollowMode {
+        /**
+         * One statement locking both users, toggling the follow and adjusting the counters.
+         */
+        ATOMIC,
+
+        /**
+         * Separate statements for the checks, the write and each counter, without a transaction.
+         * Kept for comparison, concurrent toggles of the same follow can fail or leave the counters wrong.
+         */
+        STATEMENTS,
+    }
+
+    public enum FeedMode {
+        /**
+         * The recipes of every followed author, merged and sorted when the feed is requested.
+         */
+        PULL,
+
+        /**
+         * The timeline of the user, kept up to date by every write, with the recipes of the celebrities
+         * they follow merged in, see {@link FeedTimeline}.
+         */
+        TIMELINE,
+
+        /**
+         * The newest recipes of each followed author, merged in memory until the page is complete,
+         * see {@link FeedMerger}.
+         */
+        MERGE,
+    }
+}
@@ -5,7 +5,7 @@ import io.sustc.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -13,6 +13,9 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 
@@ -36,10 +39,43 @@ public class UserServiceImpl implements UserService {
 
     private final JdbcTemplate jdbcTemplate;
 
-    public UserServiceImpl(JdbcTemplate jdbcTemplate) {
+    private final IdAllocator idAllocator;
+
+    private final PageCounter pageCounter;
+
+    private final FollowEngine followEngine;
+
+    private final FeedTimeline feedTimeline;
+
+    private final FeedMerger feedMerger;
+
+    private final FollowRatioLeader followRatioLeader;
+
+    private final Authenticator authenticator;
+
+    private final ActiveUsers activeUsers;
+
+    private final ServiceConfig serviceConfig;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public UserServiceImpl(JdbcTemplate jdbcTemplate, IdAllocator idAllocator, PageCounter pageCounter,
+                           FollowEngine followEngine, FeedTimeline feedTimeline, FeedMerger feedMerger,
+                           FollowRatioLeader followRatioLeader, Authenticator authenticator,
+                           ActiveUsers activeUsers, ServiceConfig serviceConfig,
+                           TransactionTemplate transactionTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        this.idAllocator = idAllocator;
+        this.pageCounter = pageCounter;
+        this.followEngine = followEngine;
+        this.feedTimeline = feedTimeline;
+        this.feedMerger = feedMerger;
+        this.followRatioLeader = followRatioLeader;
+        this.authenticator = authenticator;
+        this.activeUsers = activeUsers;
+        this.serviceConfig = serviceConfig;
+        this.transactionTemplate = transactionTemplate;
     }
-    private static final int MAX_RETRY = 3;
 
     @Override
     public long register(RegisterUserReq req) {
@@ -81,36 +117,32 @@ public class UserServiceImpl implements UserService {
         }
 
         String password = req.getPassword() == null ? "" : req.getPassword();
-        for (int attempt = 0; attempt < MAX_RETRY; attempt++) {
-            try {
-                String maxIdSql = "SELECT COALESCE(MAX(AuthorId), 9853) FROM users";
-                Long currentMax = jdbcTemplate.queryForObject(maxIdSql, Long.class);
-                long newAuthorId = currentMax + 1;
-                String sqlInsert = """
-                INSERT INTO users (
-                    AuthorId, AuthorName, Gender, Age, Password, IsDeleted,
-                    Followers, Following
-                ) VALUES (?, ?, ?, ?, ?, ?, ?, ?)
-                """;
-                int updated = jdbcTemplate.update(sqlInsert,
-                        newAuthorId,
-                        req.getName(),
-                        genderStr,
-                        age,
-                        password,
-                        false,
-                        0,
-                        0
-                );
-
-                if (updated == 1) {
-                    return newAuthorId;
-                }
-            } catch (DuplicateKeyException e) {
-                continue;
-            } catch (Exception e) {
-                break;
+        try {
+            // the allocator never hands out an ID twice, so there is no duplicate key to retry on
+            long newAuthorId = idAllocator.next(IdAllocator.IdSequence.USER);
+            String sqlInsert = """
+            INSERT INTO users (
+                AuthorId, AuthorName, Gender, Age, Password, IsDeleted,
+                Followers, Following
+            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+            int updated = jdbcTemplate.update(sqlInsert,
+                    newAuthorId,
+                    req.getName(),
+                    genderStr,
+                    age,
+                    password,
+                    false,
+                    0,
+                    0
+            );
+
+            if (updated == 1) {
+                activeUsers.registered(newAuthorId);
+                return newAuthorId;
             }
+        } catch (DataAccessException e) {
+            log.warn("Failed to register user {}", req.getName(), e);
         }
         return -1;
     }
@@ -119,47 +151,101 @@ public class UserServiceImpl implements UserService {
         if (auth == null || !StringUtils.hasText(auth.getPassword())) {
             return -1;
         }
-        String sql = "SELECT Password FROM users WHERE AuthorId = ? AND IsDeleted = FALSE";
-        String storedPassword;
-        try {
-            storedPassword = jdbcTemplate.queryForObject(sql, String.class, auth.getAuthorId());
-        } catch (EmptyResultDataAccessException e) {
-            return -1;
-        }
-
-        if (storedPassword != null && storedPassword.equals(auth.getPassword())) {
-            return auth.getAuthorId();
-        } else {
-            return -1;
-        }
+        return authenticator.verify(auth.getAuthorId(), auth.getPassword()) ? auth.getAuthorId() : -1;
     }
+    /**
+     * Removes the follows of a deleted user, decrementing the counters of the users on their other end,
+     * which {@link #getById} reads back.
+     */
+    private static final String DELETE_FOLLOWS_SQL = """
+            WITH removed AS (
+                DELETE FROM user_follows
+                WHERE FollowerId = ? OR FollowingId = ?
+                RETURNING FollowerId, FollowingId
+            ),
+            lost AS (
+                SELECT CASE WHEN FollowerId = ? THEN FollowingId ELSE FollowerId END AS AuthorId,
+                       COUNT(*) FILTER (WHERE FollowerId = ?) AS followers,
+                       COUNT(*) FILTER (WHERE FollowingId = ?) AS following
+                FROM removed
+                GROUP BY 1
+            )
+            UPDATE users u
+            SET Followers = GREATEST(u.Followers - l.followers, 0),
+                Following = GREATEST(u.Following - l.following, 0)
+            FROM lost l
+            WHERE u.AuthorId = l.AuthorId
+            RETURNING u.AuthorId
+            """;
+
+    /**
+     * Locks the user and the users on the other end of its follows, in the {@code AuthorId} order in which
+     * {@link FollowEngine} locks the two users of a follow, so a deletion and a follow cannot deadlock.
+     */
+    private static final String LOCK_FOLLOWS_SQL = """
+            SELECT AuthorId, IsDeleted FROM users
+            WHERE AuthorId = ?
+               OR AuthorId IN (SELECT FollowingId FROM user_follows WHERE FollowerId = ?
+                               UNION
+                               SELECT FollowerId FROM user_follows WHERE FollowingId = ?)
+            ORDER BY AuthorId
+            FOR NO KEY UPDATE
+            """;
+
     @Override
     public boolean deleteAccount(AuthInfo auth, long userId) {
         if(auth==null||auth.getAuthorId()!=userId){
             throw(new SecurityException("Invalid auth info"));
         }
-        String sql="SELECT IsDeleted From users WHERE AuthorId=?";
-        Boolean isDeleted;
-        try {
-            isDeleted = jdbcTemplate.queryForObject(
-                    sql,
-                    Boolean.class,
-                    userId
-            );
-        } catch (EmptyResultDataAccessException e) {
+        // the counters of the other users, the follows and the timelines change together or not at all
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> deleteAccount(userId)));
+    }
+
+    private boolean deleteAccount(long userId) {
+        Map<Long, Boolean> locked = new HashMap<>();
+        jdbcTemplate.query(LOCK_FOLLOWS_SQL, rs -> {
+            locked.put(rs.getLong("AuthorId"), rs.getBoolean("IsDeleted"));
+        }, userId, userId, userId);
+        Boolean isDeleted = locked.get(userId);
+        if (isDeleted == null) {
             throw new IllegalArgumentException("目标用户不存在");
         }
         if(isDeleted){
             return false;
         }
-        String sqlUpdate="UPDATE users SET IsDeleted=TRUE WHERE AuthorId=?";
+        String sqlUpdate="UPDATE users SET IsDeleted=TRUE, Followers=0, Following=0 WHERE AuthorId=?";
         jdbcTemplate.update(sqlUpdate,userId);
-        String deletefollow="DELETE FROM user_follows WHERE FollowerId=? OR FollowingId=?";
-        jdbcTemplate.update(deletefollow,userId,userId);
+        List<Long> changed = new ArrayList<>(jdbcTemplate.queryForList(
+                DELETE_FOLLOWS_SQL, Long.class, userId, userId, userId, userId, userId));
+        changed.add(userId);
+        feedTimeline.accountDeleted(userId);
+        authenticator.invalidate(userId);
+        pageCounter.invalidate();
+        // they read the committed follows and users
+        afterCommit(() -> {
+            activeUsers.deleted(userId);
+            followRatioLeader.usersChanged(changed);
+        });
 
         return true;
     }
 
+    /**
+     * Runs the action once the current transaction has committed, at once outside of a transaction.
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
     @Override
     public boolean follow(AuthInfo auth, long followeeId) {
         if (auth == null) {
@@ -169,81 +255,114 @@ public class UserServiceImpl implements UserService {
         if (followerId == null || followerId == followeeId) {
             throw new SecurityException("无效凭证或不能关注自己");
         }
-        if (!userExists(followerId)) {
-            throw new SecurityException("当前用户无效");
-        }
-        if (!userExists(followeeId)) {
-            throw new SecurityException("目标用户不存在");
-        }
-        String checkSql = "SELECT COUNT(*) FROM user_follows WHERE FollowerId = ? AND FollowingId = ?";
-        Integer count = jdbcTemplate.queryForObject(checkSql, Integer.class, followerId, followeeId);
-
-        if (count == null || count == 0) {
-            String insertSql = "INSERT INTO user_follows (FollowerId, FollowingId) VALUES (?, ?)";
-            jdbcTemplate.update(insertSql, followerId, followeeId);
-            jdbcTemplate.update("UPDATE users SET Following = Following + 1 WHERE AuthorId = ?", followerId);
-            jdbcTemplate.update("UPDATE users SET Followers = Followers + 1 WHERE AuthorId = ?", followeeId);
-
-            return true;
-        } else if (count == 1) {
-            String deleteSql = "DELETE FROM user_follows WHERE FollowerId = ? AND FollowingId = ?";
-            jdbcTemplate.update(deleteSql, followerId, followeeId);
-            jdbcTemplate.update("UPDATE users SET Following = GREATEST(Following - 1, 0) WHERE AuthorId = ?", followerId);
-            jdbcTemplate.update("UPDATE users SET Followers = GREATEST(Followers - 1, 0) WHERE AuthorId = ?", followeeId);
-
-            return true;
-        } else {
-            return false;
-        }
-    }
+        followEngine.toggle(followerId, followeeId);
+        followRatioLeader.usersChanged(List.of(followerId, followeeId));
+        pageCounter.invalidate();
 
-    private boolean userExists(long userId) {
-        try {
-            String sql = "SELECT EXISTS(SELECT 1 FROM users WHERE AuthorId = ? AND IsDeleted = FALSE)";
-            Boolean exists = jdbcTemplate.queryForObject(sql, Boolean.class, userId);
-            return Boolean.TRUE.equals(exists);
-        } catch (EmptyResultDataAccessException e) {
-            return false;
-        } catch (Exception e) {
-            return false;
-        }
+        return true;
     }
 
+    /**
+     * The profiles with their maintained counters and both follow lists, in one round trip however many users.
+     * The lists are read as text and parsed into {@code long[]}, without boxing every ID.
+     */
+    private static final String PROFILE_SQL = """
+            SELECT u.AuthorId, u.AuthorName, u.Gender, u.Age, u.Password, u.Followers, u.Following,
+                   (SELECT ARRAY_AGG(f.FollowerId) FROM user_follows f WHERE f.FollowingId = u.AuthorId)::text AS follower_ids,
+                   (SELECT ARRAY_AGG(f.FollowingId) FROM user_follows f WHERE f.FollowerId = u.AuthorId)::text AS following_ids
+            FROM users u
+            """;
+
+    private static final RowMapper<UserRecord> PROFILE_MAPPER = (rs, rowNum) -> {
+        UserRecord ur = new UserRecord();
+        ur.setAuthorId(rs.getLong("AuthorId"));
+        ur.setAuthorName(rs.getString("AuthorName"));
+        ur.setGender(rs.getString("Gender"));
+        ur.setAge(rs.getInt("Age"));
+        ur.setPassword(rs.getString("Password"));
+        ur.setFollowers(rs.getInt("Followers"));
+        ur.setFollowing(rs.getInt("Following"));
+        ur.setFollowerUsers(parseIds(rs.getString("follower_ids")));
+        ur.setFollowingUsers(parseIds(rs.getString("following_ids")));
+        return ur;
+    };
 
     @Override
     public UserRecord getById(long userId) {
-        String userSql = "SELECT AuthorId, AuthorName, Gender, Age, Password " +
-                "FROM users WHERE AuthorId = ? AND IsDeleted = FALSE";
-        UserRecord user;
-        try {
-            user = jdbcTemplate.queryForObject(userSql, (rs, rowNum) -> {
-                UserRecord ur = new UserRecord();
-                ur.setAuthorId(rs.getLong("AuthorId"));
-                ur.setAuthorName(rs.getString("AuthorName"));
-                ur.setGender(rs.getString("Gender"));
-                ur.setAge(rs.getInt("Age"));
-                ur.setPassword(rs.getString("Password"));
-                return ur;
-            }, userId);
-        } catch (EmptyResultDataAccessException e) {
-            return null;
+        List<UserRecord> users = jdbcTemplate.query(PROFILE_SQL + "WHERE u.AuthorId = ? AND u.IsDeleted = FALSE",
+                PROFILE_MAPPER, userId);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    public List<UserRecord> getByIds(long[] userIds) {
+        if (userIds == null) {
+            throw new IllegalArgumentException("User IDs must not be null");
+        }
+        List<UserRecord> result = new ArrayList<>(userIds.length);
+        if (userIds.length == 0) {
+            return result;
+        }
+        Long[] ids = Arrays.stream(userIds).distinct().boxed().toArray(Long[]::new);
+        Map<Long, UserRecord> byId = new HashMap<>();
+        jdbcTemplate.query(PROFILE_SQL + "WHERE u.AuthorId = ANY(?) AND u.IsDeleted = FALSE",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                rs -> {
+                    UserRecord user = PROFILE_MAPPER.mapRow(rs, 0);
+                    byId.put(user.getAuthorId(), user);
+                });
+        Set<Long> returned = new HashSet<>();
+        for (long userId : userIds) {
+            UserRecord user = byId.get(userId);
+            if (user != null && !returned.add(userId)) {
+                // a repeated ID gets its own record, not one sharing the arrays of the first
+                user = UserRecord.builder()
+                        .authorId(user.getAuthorId())
+                        .authorName(user.getAuthorName())
+                        .gender(user.getGender())
+                        .age(user.getAge())
+                        .password(user.getPassword())
+                        .followers(user.getFollowers())
+                        .following(user.getFollowing())
+                        .followerUsers(user.getFollowerUsers().clone())
+                        .followingUsers(user.getFollowingUsers().clone())
+                        .build();
+            }
+            result.add(user);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the text form of a {@code bigint[]}, such as {@code {1,2,3}}, {@code null} being no IDs.
+     */
+    private static long[] parseIds(String array) {
+        if (array == null || array.length() <= 2) {
+            return new long[0];
         }
-        int followers = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM user_follows WHERE FollowingId = ?", Integer.class, userId);
-        int following = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM user_follows WHERE FollowerId = ?", Integer.class, userId);
-
-        user.setFollowers(followers);
-        user.setFollowing(following);
-        List<Long> followerList = jdbcTemplate.queryForList(
-                "SELECT FollowerId FROM user_follows WHERE FollowingId = ?", Long.class, userId);
-        user.setFollowerUsers(followerList.stream().mapToLong(Long::longValue).toArray());
-
-        List<Long> followingList = jdbcTemplate.queryForList(
-                "SELECT FollowingId FROM user_follows WHERE FollowerId = ?", Long.class, userId);
-        user.setFollowingUsers(followingList.stream().mapToLong(Long::longValue).toArray());
-
-        return user;
+        int count = 1;
+        for (int i = 1; i < array.length() - 1; i++) {
+            if (array.charAt(i) == ',') {
+                count++;
+            }
+        }
+        long[] ids = new long[count];
+        int index = 0;
+        long value = 0;
+        boolean negative = false;
+        for (int i = 1; i < array.length(); i++) {
+            char c = array.charAt(i);
+            if (c == ',' || c == '}') {
+                ids[index++] = negative ? -value : value;
+                value = 0;
+                negative = false;
+            } else if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return ids;
     }
 
     private static final String SQL_UPDATE =
@@ -280,6 +399,19 @@ public class UserServiceImpl implements UserService {
     private static final Calendar UTC_CALENDAR = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
     @Override
     public PageResult<FeedItem> feed(AuthInfo auth, int page, int size, String category) {
+        return feed(auth, page, size, category, true);
+    }
+
+    @Override
+    public PageResult<FeedItem> feed(AuthInfo auth, int page, int size, String category, boolean includeTotal) {
+        return feed(auth, page, size, category, includeTotal, serviceConfig.getFeed().getMode());
+    }
+
+    /**
+     * The feed read in the given mode rather than the configured one, to compare the modes.
+     */
+    public PageResult<FeedItem> feed(AuthInfo auth, int page, int size, String category, boolean includeTotal,
+                                     ServiceConfig.FeedMode mode) {
         if (auth == null || auth.getAuthorId() <= 0) {
             throw new SecurityException("认证信息无效，无法获取用户信息");
         }
@@ -288,114 +420,181 @@ public class UserServiceImpl implements UserService {
         int validSize = Math.min(Math.max(size, 1), 200);
         int offset = (validPage - 1) * validSize;
 
-        List<Object> params = new ArrayList<>();
-        params.add(auth.getAuthorId());
+        PageCounter.Page<FeedItem> result = fetchFeed(mode, auth, category, null, validSize, offset, includeTotal, null);
 
-        StringBuilder whereClause = new StringBuilder(
-                "WHERE r.AuthorId IN (SELECT FollowingId FROM user_follows WHERE FollowerId = ?)"
-        );
+        return PageResult.<FeedItem>builder()
+                .items(result.items())
+                .page(validPage)
+                .size(validSize)
+                .total(result.total())
+                .build();
+    }
 
-        if (category != null && !category.trim().isEmpty()) {
-            whereClause.append(" AND r.RecipeCategory = ?");
-            params.add(category);
+    @Override
+    public PageResult<FeedItem> feedByCursor(AuthInfo auth, String cursor, int size, String category) {
+        if (auth == null || auth.getAuthorId() <= 0) {
+            throw new SecurityException("认证信息无效，无法获取用户信息");
+        }
+        int validSize = Math.min(Math.max(size, 1), 200);
+        boolean firstPage = cursor == null || cursor.isEmpty();
+
+        List<String[]> keys = new ArrayList<>();
+        // one more row than asked tells whether there is a next page
+        PageCounter.Page<FeedItem> result = fetchFeed(serviceConfig.getFeed().getMode(), auth, category, cursor,
+                validSize + 1, 0, firstPage, keys);
+        List<FeedItem> feedItems = result.items();
+        String nextCursor = null;
+        if (feedItems.size() > validSize) {
+            feedItems.remove(feedItems.size() - 1);
+            nextCursor = feedQuery(serviceConfig.getFeed().getMode()).ordering().encode(keys.get(validSize - 1));
         }
-
-        String sql = "SELECT r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount " +
-                "FROM recipes r " +
-                "LEFT JOIN users u ON r.AuthorId = u.AuthorId " +
-                whereClause +
-                " ORDER BY r.DatePublished DESC, r.RecipeId DESC " +
-                "LIMIT ? OFFSET ?";
-
-        params.add(validSize);
-        params.add(offset);
-        List<FeedItem> feedItems = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            FeedItem item = new FeedItem();
-            item.setRecipeId(rs.getLong("RecipeId"));
-            item.setName(rs.getString("Name"));
-            item.setAuthorId(rs.getLong("AuthorId"));
-            item.setAuthorName(rs.getString("AuthorName"));
-            Timestamp ts = rs.getTimestamp("DatePublished", UTC_CALENDAR);
-            item.setDatePublished(ts != null ? ts.toInstant() : null);
-
-            item.setAggregatedRating(rs.getDouble("AggregatedRating"));
-            item.setReviewCount(rs.getInt("ReviewCount"));
-            return item;
-        }, params.toArray());
-        String countSql = "SELECT COUNT(*) FROM recipes r " +
-                "LEFT JOIN users u ON r.AuthorId = u.AuthorId " +
-                whereClause;
-        List<Object> countParams = params.subList(0, params.size() - 2);
-        Integer total = jdbcTemplate.queryForObject(countSql, Integer.class, countParams.toArray());
-        if (total == null) total = 0;
 
         return PageResult.<FeedItem>builder()
                 .items(feedItems)
-                .page(validPage)
                 .size(validSize)
-                .total(total)
+                .total(result.total())
+                .nextCursor(nextCursor)
                 .build();
     }
 
-    @Override
-    public Map<String, Object> getUserWithHighestFollowRatio() {
-        String sql = """
-        SELECT 
-            u.AuthorId,
-            u.AuthorName,
-            COALESCE(f1.follower_count, 0) AS follower_count,
-            COALESCE(f2.following_count, 0) AS following_count
-        FROM users u
-        LEFT JOIN (
-            SELECT FollowingId, COUNT(*) AS follower_count 
-            FROM user_follows 
-            GROUP BY FollowingId
-        ) f1 ON u.AuthorId = f1.FollowingId
-        LEFT JOIN (
-            SELECT FollowerId, COUNT(*) AS following_count 
-            FROM user_follows 
-            GROUP BY FollowerId
-        ) f2 ON u.AuthorId = f2.FollowerId
-        WHERE u.IsDeleted = FALSE 
-          AND COALESCE(f2.following_count, 0) > 0
-        """;
-
-        List<Map<String, Object>> users = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            Map<String, Object> user = new HashMap<>();
-            user.put("AuthorId", rs.getLong("AuthorId"));
-            user.put("AuthorName", rs.getString("AuthorName"));
-            user.put("FollowerCount", rs.getInt("follower_count"));
-            user.put("FollowingCount", rs.getInt("following_count"));
-            return user;
-        });
+    /**
+     * Reads {@code limit} feed items after the cursor and the first {@code offset} items.
+     *
+     * @param keys receives the sort keys of every item when not {@code null}, to build the next cursor
+     */
+    private PageCounter.Page<FeedItem> fetchFeed(ServiceConfig.FeedMode mode, AuthInfo auth, String category,
+                                                 String cursor, int limit, int offset, boolean includeTotal,
+                                                 List<String[]> keys) {
+        FeedQuery query = feedQuery(mode);
+        Keyset ordering = query.ordering();
+        if (mode == ServiceConfig.FeedMode.MERGE) {
+            List<FeedMerger.Entry> entries = feedMerger.top(auth.getAuthorId(), category, ordering, cursor, offset + limit);
+            entries = entries.subList(Math.min(offset, entries.size()), entries.size());
+            if (keys != null) {
+                entries.forEach(entry -> keys.add(entry.keys()));
+            }
+            long total = -1;
+            if (includeTotal) {
+                List<Object> params = new ArrayList<>();
+                total = pageCounter.count(query.from() + feedFilters(query, auth, category, params), params);
+            }
+            return new PageCounter.Page<>(loadFeedItems(entries), total);
+        }
+
+        List<Object> params = new ArrayList<>();
+        StringBuilder whereClause = feedFilters(query, auth, category, params);
+        ordering.appendSeek(cursor, whereClause, params);
+        String columns = keys == null ? FEED_COLUMNS : FEED_COLUMNS + ", " + ordering.selectKeys();
+        return pageCounter.fetch(columns, query.from() + whereClause, params, ordering.orderBy(), limit, offset,
+                (rs, rowNum) -> {
+                    if (keys != null) {
+                        keys.add(ordering.readKeys(rs));
+                    }
+                    return mapFeedRow(rs);
+                }, includeTotal);
+    }
 
-        if (users.isEmpty()) {
-            return null;
+    /**
+     * The feed items of the merged recipes, in their order.
+     */
+    private List<FeedItem> loadFeedItems(List<FeedMerger.Entry> entries) {
+        List<FeedItem> items = new ArrayList<>(entries.size());
+        if (entries.isEmpty()) {
+            return items;
         }
-        Map<String, Object> best = users.get(0);
-        for (Map<String, Object> candidate : users) {
-            long bestId = (Long) best.get("AuthorId");
-            long candId = (Long) candidate.get("AuthorId");
-
-            int bestFollowers = (Integer) best.get("FollowerCount");
-            int bestFollowing = (Integer) best.get("FollowingCount");
-            int candFollowers = (Integer) candidate.get("FollowerCount");
-            int candFollowing = (Integer) candidate.get("FollowingCount");
-            long candCross = (long) candFollowers * bestFollowing;
-            long bestCross = (long) bestFollowers * candFollowing;
-
-            if (candCross > bestCross) {
-                best = candidate;
-            } else if (candCross == bestCross && candId < bestId) {
-                best = candidate;
+        Long[] recipeIds = entries.stream().map(FeedMerger.Entry::recipeId).toArray(Long[]::new);
+        Map<Long, FeedItem> byId = new HashMap<>();
+        jdbcTemplate.query("SELECT " + FEED_COLUMNS + " FROM " + PULL_FEED.from() + "WHERE r.RecipeId = ANY(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", recipeIds)),
+                rs -> {
+                    FeedItem item = mapFeedRow(rs);
+                    byId.put(item.getRecipeId(), item);
+                });
+        for (FeedMerger.Entry entry : entries) {
+            FeedItem item = byId.get(entry.recipeId());
+            // deleted since it was merged
+            if (item != null) {
+                items.add(item);
             }
         }
+        return items;
+    }
 
-        double ratio = ((int) best.get("FollowerCount")) * 1.0 / ((int) best.get("FollowingCount"));
-        Map<String, Object> result = new HashMap<>();
-        result.put("AuthorId", best.get("AuthorId"));
-        result.put("AuthorName", best.get("AuthorName"));
-        result.put("Ratio", ratio);
-        return result;
+    private static final String FEED_COLUMNS =
+            "r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.DatePublished, r.AggregatedRating, r.ReviewCount";
+
+    /**
+     * The recipes of the followed authors, served by the (AuthorId, DatePublished, RecipeId) index
+     * for each of them, newest first.
+     */
+    private static final FeedQuery PULL_FEED = new FeedQuery(
+            "recipes r LEFT JOIN users u ON r.AuthorId = u.AuthorId ",
+            "r.AuthorId IN (SELECT FollowingId FROM user_follows WHERE FollowerId = ?)",
+            new Keyset("feed", true,
+                    Keyset.nullableKey("r.DatePublished", "timestamp"), Keyset.key("r.RecipeId", "bigint")));
+
+    /**
+     * The timeline of the user, served by the (UserId, DatePublished, RecipeId) index, merged with the
+     * recipes of the celebrities they follow. The user filter applies to both branches of the union.
+     * The sort keys are the same as in {@link #PULL_FEED}, so a cursor stays valid across the modes.
+     */
+    private static final FeedQuery TIMELINE_FEED = new FeedQuery("""
+            (SELECT UserId, RecipeId, DatePublished FROM feed_timeline
+             UNION ALL
+             SELECT f.FollowerId, cr.RecipeId, cr.DatePublished
+             FROM feed_celebrities c
+             JOIN user_follows f ON f.FollowingId = c.AuthorId
+             JOIN recipes cr ON cr.AuthorId = c.AuthorId) t
+            JOIN recipes r ON r.RecipeId = t.RecipeId
+            LEFT JOIN users u ON r.AuthorId = u.AuthorId
+            """,
+            "t.UserId = ?",
+            new Keyset("feed", true,
+                    Keyset.nullableKey("t.DatePublished", "timestamp"), Keyset.key("t.RecipeId", "bigint")));
+
+    /**
+     * @param from       the joined tables, without the {@code FROM} keyword
+     * @param userFilter the condition on the followed authors, taking the ID of the user
+     */
+    private record FeedQuery(String from, String userFilter, Keyset ordering) {
+    }
+
+    /**
+     * The query of the feed in the given mode, {@link ServiceConfig.FeedMode#MERGE} merging the rows of
+     * {@link #PULL_FEED} itself and counting them with it.
+     */
+    private static FeedQuery feedQuery(ServiceConfig.FeedMode mode) {
+        return mode == ServiceConfig.FeedMode.TIMELINE ? TIMELINE_FEED : PULL_FEED;
+    }
+
+    private static StringBuilder feedFilters(FeedQuery query, AuthInfo auth, String category, List<Object> params) {
+        params.add(auth.getAuthorId());
+
+        StringBuilder whereClause = new StringBuilder("WHERE " + query.userFilter());
+
+        if (category != null && !category.trim().isEmpty()) {
+            whereClause.append(" AND r.RecipeCategory = ?");
+            params.add(category);
+        }
+        return whereClause;
+    }
+
+    private static FeedItem mapFeedRow(ResultSet rs) throws SQLException {
+        FeedItem item = new FeedItem();
+        item.setRecipeId(rs.getLong("RecipeId"));
+        item.setName(rs.getString("Name"));
+        item.setAuthorId(rs.getLong("AuthorId"));
+        item.setAuthorName(rs.getString("AuthorName"));
+        Timestamp ts = rs.getTimestamp("DatePublished", UTC_CALENDAR);
+        item.setDatePublished(ts != null ? ts.toInstant() : null);
+
+        item.setAggregatedRating(rs.getDouble("AggregatedRating"));
+        item.setReviewCount(rs.getInt("ReviewCount"));
+        return item;
+    }
+
+    @Override
+    public Map<String, Object> getUserWithHighestFollowRatio() {
+        return followRatioLeader.leader();
     }
 }
\ No newline at end of file
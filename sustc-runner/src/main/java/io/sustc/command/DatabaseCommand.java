@@ -17,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvException;
 
@@ -87,6 +88,82 @@ public class DatabaseCommand {
         databaseService.drop();
     }
 
+    @ShellMethod(key = "db index rebuild", value = "Drop and recreate the secondary indexes")
+    public void rebuildIndexes() {
+        long startTime = System.currentTimeMillis();
+        databaseService.rebuildIndexes();
+        System.out.println("rebuildIndexes time: " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    @ShellMethod(key = "db index verify", value = "Check that the secondary indexes exist and are valid")
+    public void verifyIndexes() {
+        databaseService.verifyIndexes().forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db search benchmark", value = "Compare recipe keyword search with and without trigram indexes")
+    public void benchmarkSearch(@ShellOption(defaultValue = "1000,10000,100000") String sizes,
+                                @ShellOption(defaultValue = "5") int rounds) {
+        List<Integer> sizeList = Arrays.stream(sizes.split(","))
+                .map(String::trim)
+                .map(Integer::parseInt)
+                .toList();
+        databaseService.benchmarkSearch(sizeList, rounds).forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db feed rebuild", value = "Rebuild the feed timelines and choose the celebrity authors again")
+    public void rebuildFeed() {
+        System.out.println("timeline rows: " + databaseService.rebuildFeed());
+    }
+
+    @ShellMethod(key = "db feed verify", value = "Check the feed timelines against the follows and recipes")
+    public void verifyFeed() {
+        databaseService.verifyFeed().forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db feed benchmark", value = "Compare the feed modes for users following many authors")
+    public void benchmarkFeed(@ShellOption(defaultValue = "10,1000,10000") String followees,
+                              @ShellOption(defaultValue = "5") int rounds) {
+        List<Integer> followeeCounts = Arrays.stream(followees.split(","))
+                .map(String::trim)
+                .map(Integer::parseInt)
+                .toList();
+        databaseService.benchmarkFeed(followeeCounts, rounds).forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db follow benchmark", value = "Compare concurrent follow toggles with each follow mode")
+    public void benchmarkFollow(@ShellOption(defaultValue = "8") int threads,
+                                @ShellOption(defaultValue = "20") int users,
+                                @ShellOption(defaultValue = "2000") int operations) {
+        databaseService.benchmarkFollow(threads, users, operations).forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db login benchmark", value = "Compare logins with and without the credential cache")
+    public void benchmarkLogin(@ShellOption(defaultValue = "8") int threads,
+                               @ShellOption(defaultValue = "1000") int users,
+                               @ShellOption(defaultValue = "20000") int operations) {
+        databaseService.benchmarkLogin(threads, users, operations).forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db ratings repair", value = "Recompute the recipe ratings whose running totals don't match the reviews")
+    public void repairRatings() {
+        System.out.println("repaired recipes: " + databaseService.repairRatings());
+    }
+
+    @ShellMethod(key = "db follows repair", value = "Recompute the follower counters which don't match the follows")
+    public void repairFollowCounts() {
+        System.out.println("repaired users: " + databaseService.repairFollowCounts());
+    }
+
+    @ShellMethod(key = "db cache stats", value = "Show the hit rate and evictions of the in-process caches")
+    public void cacheStats() {
+        databaseService.cacheStats().forEach(System.out::println);
+    }
+
+    @ShellMethod(key = "db users verify", value = "Compare the in-memory active users with the users table")
+    public void verifyActiveUsers() {
+        databaseService.verifyActiveUsers().forEach(System.out::println);
+    }
+
     @ShellMethod(key = "db sum", value = "Demonstrate using DataSource")
     public Integer sum(int a, int b) {
         return databaseService.sum(a, b);